@@ -0,0 +1,291 @@
+package com.game.stratego.core.ai;
+
+import com.game.stratego.core.stratego.Board;
+import com.game.stratego.core.stratego.Move;
+import com.game.stratego.core.stratego.MoveList;
+import com.game.stratego.core.stratego.Piece;
+import com.game.stratego.core.stratego.Rules;
+import com.game.stratego.core.stratego.UndoRecord;
+
+/**
+ * Iterative deepening negamax with alpha-beta pruning.
+ * Leaves are scored by the network of a NeuralNetAI: all children of a frontier
+ * node go through scoreMoves in one batch. Like the greedy AI, it searches the
+ * real board and can see hidden pieces. A transposition table keeps the best move of
+ * each position between iterations, and that move is searched first, then captures.
+ * The search stops at the time or node limit and plays the best move of the
+ * last finished iteration. Not thread safe.
+ */
+public class AlphaBetaSearch {
+    public static final int DEFAULT_TABLE_SIZE = 1 << 18;
+    public static final double WIN = 2; //Beyond any network score, so a captured flag always wins
+
+    private static final byte EXACT = 0;
+    private static final byte LOWER = 1;
+    private static final byte UPPER = 2;
+    private static final int CHECK_INTERVAL = 16; //Nodes between budget checks, frontier nodes each cost a network call
+
+    private final NeuralNetAI evaluator;
+    private int maxDepth;
+    private long timeLimit; //Milliseconds, 0 for none
+    private long nodeLimit; //0 for none
+
+    //Transposition table, one entry per slot, always replaced
+    private final long[] ttKeys;
+    private final double[] ttScores;
+    private final int[] ttMoves;
+    private final byte[] ttDepths;
+    private final byte[] ttFlags;
+    private final int ttMask;
+
+    private MoveList[] moveLists = new MoveList[0];
+    private Board board;
+    private long deadline;
+    private boolean aborted;
+    private int rootBest;
+    private double rootScore;
+
+    private long nodes;
+    private long leaves;
+    private long ttHits;
+    private int completedDepth;
+    private double bestScore;
+    private long elapsed;
+
+    public AlphaBetaSearch(NeuralNetAI evaluator, int maxDepth, long timeLimit, long nodeLimit) {
+        this(evaluator, maxDepth, timeLimit, nodeLimit, DEFAULT_TABLE_SIZE);
+    }
+
+    public AlphaBetaSearch(NeuralNetAI evaluator, int maxDepth, long timeLimit, long nodeLimit, int tableSize) {
+        this.evaluator = evaluator;
+        this.maxDepth = maxDepth;
+        this.timeLimit = timeLimit;
+        this.nodeLimit = nodeLimit;
+        int size = 1;
+        while(size < tableSize) {
+            size <<= 1;
+        }
+        ttKeys = new long[size];
+        ttScores = new double[size];
+        ttMoves = new int[size];
+        ttDepths = new byte[size];
+        ttFlags = new byte[size];
+        ttMask = size - 1;
+        clearTable();
+    }
+
+    /**
+     * Finds the best move for teamNum. The board is searched in place and is
+     * back in its original state afterwards. Returns null if there are no moves.
+     */
+    public Move findMove(Board b, int teamNum) {
+        this.board = b;
+        long start = System.currentTimeMillis();
+        deadline = start + timeLimit;
+        aborted = false;
+        nodes = 0;
+        leaves = 0;
+        ttHits = 0;
+        completedDepth = 0;
+        bestScore = 0;
+        if(moveLists.length < maxDepth + 1) {
+            moveLists = new MoveList[maxDepth + 1];
+            for(int i = 0; i < moveLists.length; i++) {
+                moveLists[i] = new MoveList();
+            }
+        }
+        b.setSideToMove(teamNum);
+        int best = -1;
+        for(int depth = 1; depth <= maxDepth; depth++) {
+            rootBest = -1;
+            negamax(teamNum, depth, -Double.MAX_VALUE, Double.MAX_VALUE, 0);
+            if(aborted) {
+                break;
+            }
+            best = rootBest;
+            bestScore = rootScore;
+            completedDepth = depth;
+            if(best == -1 || Math.abs(bestScore) >= WIN) { //No moves, or the result is already decided
+                break;
+            }
+        }
+        elapsed = System.currentTimeMillis() - start;
+        this.board = null;
+        return (best == -1) ? null : new Move(best);
+    }
+
+    private double negamax(int side, int depth, double alpha, double beta, int ply) {
+        nodes++;
+        if(nodes % CHECK_INTERVAL == 0) {
+            checkBudget();
+        }
+        if(aborted) {
+            return 0;
+        }
+        if(board.isGameFinished()) {
+            return (board.getWinner() == side) ? WIN : -WIN;
+        }
+        double alphaStart = alpha;
+        int slot = (int)(board.getHash() ^ (board.getHash() >>> 32)) & ttMask;
+        int ttMove = -1;
+        if(ttKeys[slot] == board.getHash()) {
+            ttMove = ttMoves[slot];
+            if(ply > 0 && ttDepths[slot] >= depth) {
+                double score = ttScores[slot];
+                if(ttFlags[slot] == EXACT
+                        || (ttFlags[slot] == LOWER && score >= beta)
+                        || (ttFlags[slot] == UPPER && score <= alpha)) {
+                    ttHits++;
+                    return score;
+                }
+            }
+        }
+        MoveList moves = moveLists[ply];
+        board.getLegalMoves(side, moves);
+        if(moves.isEmpty()) { //A player who can't move loses
+            return -WIN;
+        }
+        double best = -Double.MAX_VALUE;
+        int bestMove = -1;
+        if(depth == 1) {
+            //Frontier node, score every child in one network call
+            double[] scores = evaluator.scoreMoves(board, side, moves);
+            leaves += moves.size();
+            for(int i = 0; i < moves.size(); i++) {
+                int m = moves.get(i);
+                double score = capturesFlag(m) ? WIN : 2 * scores[i] - 1;
+                if(score > best) {
+                    best = score;
+                    bestMove = m;
+                }
+            }
+        }
+        else {
+            orderMoves(moves, ttMove);
+            for(int i = 0; i < moves.size(); i++) {
+                int m = moves.get(i);
+                UndoRecord u = board.makeMove(m);
+                double score = -negamax(1 - side, depth - 1, -beta, -alpha, ply + 1);
+                board.unmakeMove(u);
+                if(aborted) {
+                    return 0;
+                }
+                if(score > best) {
+                    best = score;
+                    bestMove = m;
+                }
+                if(best > alpha) {
+                    alpha = best;
+                }
+                if(alpha >= beta) {
+                    break;
+                }
+            }
+        }
+        ttKeys[slot] = board.getHash();
+        ttScores[slot] = best;
+        ttMoves[slot] = bestMove;
+        ttDepths[slot] = (byte) depth;
+        ttFlags[slot] = (best <= alphaStart) ? UPPER : (best >= beta) ? LOWER : EXACT;
+        if(ply == 0) {
+            rootBest = bestMove;
+            rootScore = best;
+        }
+        return best;
+    }
+
+    private boolean capturesFlag(int move) {
+        Piece target = board.getBoard()[Move.destinationX(move)][Move.destinationY(move)];
+        return target != null && target.getRankIndex() == Rules.FLAG;
+    }
+
+    //Table move first, then captures, otherwise generation order
+    private static void orderMoves(MoveList moves, int ttMove) {
+        int next = 0;
+        if(ttMove != -1) {
+            for(int i = 0; i < moves.size(); i++) {
+                if(Move.source(moves.get(i)) == Move.source(ttMove)
+                        && Move.destination(moves.get(i)) == Move.destination(ttMove)) {
+                    moves.swap(0, i);
+                    next = 1;
+                    break;
+                }
+            }
+        }
+        for(int i = next; i < moves.size(); i++) {
+            if(Move.isCapture(moves.get(i))) {
+                moves.swap(next++, i);
+            }
+        }
+    }
+
+    private void checkBudget() {
+        if((nodeLimit > 0 && nodes >= nodeLimit)
+                || (timeLimit > 0 && System.currentTimeMillis() >= deadline)
+                || Thread.currentThread().isInterrupted()) {
+            aborted = true;
+        }
+    }
+
+    public void clearTable() {
+        for(int i = 0; i < ttKeys.length; i++) {
+            ttKeys[i] = 0;
+            ttMoves[i] = -1;
+        }
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    public long getTimeLimit() {
+        return timeLimit;
+    }
+
+    public void setTimeLimit(long timeLimit) {
+        this.timeLimit = timeLimit;
+    }
+
+    public long getNodeLimit() {
+        return nodeLimit;
+    }
+
+    public void setNodeLimit(long nodeLimit) {
+        this.nodeLimit = nodeLimit;
+    }
+
+    //Stats of the last findMove
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getLeaves() {
+        return leaves;
+    }
+
+    public long getTableHits() {
+        return ttHits;
+    }
+
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    public double getBestScore() {
+        return bestScore;
+    }
+
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return "AlphaBetaSearch[depth=" + completedDepth + "/" + maxDepth + ", nodes=" + nodes + ", leaves=" + leaves
+                + ", tableHits=" + ttHits + ", score=" + String.format("%.3f", bestScore) + ", ms=" + elapsed + "]";
+    }
+}
@@ -20,6 +20,11 @@ public class BoardClassifier {
 
 
     public static MultiLayerNetwork getModel() {
+        return getModel(true);
+    }
+
+    //showUi starts the training UI server, leave it off on headless machines
+    public static MultiLayerNetwork getModel(boolean showUi) {
 
         ConvolutionLayer layer0 = new ConvolutionLayer.Builder(2,2)
                 .nIn(1)
@@ -63,6 +68,9 @@ public class BoardClassifier {
 
         MultiLayerNetwork network = new MultiLayerNetwork(configuration);
         network.init();
+        if(!showUi) {
+            return network;
+        }
 
         //Initialize the user interface backend
         UIServer uiServer = UIServer.getInstance();
@@ -0,0 +1,83 @@
+package com.game.stratego.core.ai;
+
+import com.game.stratego.core.stratego.Board;
+import com.game.stratego.core.stratego.Piece;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Turns boards into network input without allocating.
+ * A board is written as 100 floats, square x * 10 + y, into a caller supplied
+ * array. The static encode method is thread safe, an instance keeps reusable
+ * batch buffers and is not.
+ */
+public class BoardEncoder {
+    public static final int INPUT_SIZE = Board.DEFAULT_BOARD_SIZE * Board.DEFAULT_BOARD_SIZE;
+
+    //[side][rank index] input value. Side 1 is the team being scored, ranks 1-9, S, B, F are worth 1-12 (plus 20 for the other side) over 32
+    private static final float[][] VALUES = new float[2][Board.NUMBER_OF_PIECES];
+
+    static {
+        for(int rank = 0; rank < Board.NUMBER_OF_PIECES; rank++) {
+            VALUES[1][rank] = (rank + 1) / 32f;
+            VALUES[0][rank] = (rank + 1 + 20) / 32f;
+        }
+    }
+
+    private float[] staging = new float[64 * INPUT_SIZE];
+    private INDArray[] batches = new INDArray[64]; //Reusable [n,1,10,10] input for each batch size n
+
+    /**
+     * Writes the board as seen by teamNum into out starting at offset.
+     * Team 0 gets the same board with the team values swapped, like getINDArrayFlipped.
+     */
+    public static void encode(Piece[][] board, int teamNum, float[] out, int offset) {
+        int flip = (teamNum == 1) ? 0 : 1;
+        int index = offset;
+        for(int x = 0; x < Board.DEFAULT_BOARD_SIZE; x++) {
+            Piece[] column = board[x];
+            for(int y = 0; y < Board.DEFAULT_BOARD_SIZE; y++) {
+                Piece p = column[y];
+                out[index++] = (p == null) ? 0 : VALUES[p.getTeamNumber() ^ flip][p.getRankIndex()];
+            }
+        }
+    }
+
+    //Input value of one square as seen by teamNum
+    public static float value(Piece p, int teamNum) {
+        return (p == null) ? 0 : VALUES[p.getTeamNumber() ^ ((teamNum == 1) ? 0 : 1)][p.getRankIndex()];
+    }
+
+    //Buffer with room for n boards, fill it with encode then call batch(n)
+    public float[] buffer(int n) {
+        if(staging.length < n * INPUT_SIZE) {
+            staging = new float[Math.max(n, staging.length / INPUT_SIZE * 2) * INPUT_SIZE];
+        }
+        return staging;
+    }
+
+    //Copies the first n boards of the buffer into the reusable input array for that batch size
+    public INDArray batch(int n) {
+        return batch(staging, 0, n);
+    }
+
+    //Copies n boards starting at firstRow of any buffer into the reusable input array for that batch size
+    public INDArray batch(float[] source, int firstRow, int n) {
+        if(batches.length <= n) {
+            INDArray[] bigger = new INDArray[Math.max(n + 1, batches.length * 2)];
+            System.arraycopy(batches, 0, bigger, 0, batches.length);
+            batches = bigger;
+        }
+        if(batches[n] == null) {
+            batches[n] = Nd4j.create(new int[]{n, 1, Board.DEFAULT_BOARD_SIZE, Board.DEFAULT_BOARD_SIZE});
+        }
+        DataBuffer data = batches[n].data();
+        int offset = firstRow * INPUT_SIZE;
+        int length = n * INPUT_SIZE;
+        for(int i = 0; i < length; i++) {
+            data.put(i, source[offset + i]);
+        }
+        return batches[n];
+    }
+}
@@ -0,0 +1,18 @@
+package com.game.stratego.core.ai;
+
+/**
+ * Scores boards encoded by BoardEncoder. The score is the network's first
+ * output, the chance that the team the boards were encoded for wins.
+ */
+public interface BoardEvaluator {
+
+    /**
+     * Scores rows [firstRow, firstRow + count) of inputs into the same slots of out.
+     */
+    void evaluate(float[] inputs, int firstRow, int count, double[] out);
+
+    /**
+     * Evaluator with the same weights that can be used on another thread at the same time.
+     */
+    BoardEvaluator copy();
+}
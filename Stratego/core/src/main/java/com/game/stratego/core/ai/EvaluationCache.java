@@ -0,0 +1,114 @@
+package com.game.stratego.core.ai;
+
+/**
+ * Fixed size cache of network scores keyed by 64 bit position hashes.
+ * Entries live in buckets of two. When a bucket is full the least recently
+ * used entry is replaced, so memory stays at capacity * 24 bytes no matter
+ * how long it runs. Not thread safe.
+ */
+public class EvaluationCache {
+    private static final int WAYS = 2;
+
+    private final long[] keys;
+    private final double[] scores;
+    private final long[] lastUsed; //0 means the slot is empty
+    private final int bucketMask;
+    private long clock;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public EvaluationCache(int capacity) {
+        int buckets = 1;
+        while(buckets * WAYS < capacity) {
+            buckets <<= 1;
+        }
+        keys = new long[buckets * WAYS];
+        scores = new double[buckets * WAYS];
+        lastUsed = new long[buckets * WAYS];
+        bucketMask = buckets - 1;
+        clock = 0;
+    }
+
+    /**
+     * Returns the cached score for the key, or NaN if it is not cached.
+     */
+    public double probe(long key) {
+        int slot = bucket(key);
+        for(int i = slot; i < slot + WAYS; i++) {
+            if(lastUsed[i] != 0 && keys[i] == key) {
+                lastUsed[i] = ++clock;
+                hits++;
+                return scores[i];
+            }
+        }
+        misses++;
+        return Double.NaN;
+    }
+
+    public void store(long key, double score) {
+        int slot = bucket(key);
+        int victim = slot;
+        for(int i = slot; i < slot + WAYS; i++) {
+            if(lastUsed[i] == 0 || keys[i] == key) {
+                victim = i;
+                break;
+            }
+            if(lastUsed[i] < lastUsed[victim]) {
+                victim = i;
+            }
+        }
+        if(lastUsed[victim] != 0 && keys[victim] != key) {
+            evictions++;
+        }
+        keys[victim] = key;
+        scores[victim] = score;
+        lastUsed[victim] = ++clock;
+    }
+
+    //Call when the network's weights change, old scores are no longer valid
+    public void clear() {
+        for(int i = 0; i < lastUsed.length; i++) {
+            lastUsed[i] = 0;
+        }
+        clock = 0;
+    }
+
+    public void resetStats() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    private int bucket(long key) {
+        return ((int)(key ^ (key >>> 32)) & bucketMask) * WAYS;
+    }
+
+    public int getCapacity() {
+        return keys.length;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public double getHitRate() {
+        long total = hits + misses;
+        return (total == 0) ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return "EvaluationCache[capacity=" + getCapacity() + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + ", hitRate=" + String.format("%.3f", getHitRate()) + "]";
+    }
+}
@@ -0,0 +1,194 @@
+package com.game.stratego.core.ai;
+
+import com.game.stratego.core.stratego.Board;
+import org.deeplearning4j.nn.api.Layer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.Random;
+
+/**
+ * Forward pass of the BoardClassifier network in plain Java.
+ * The weights are copied out of a trained MultiLayerNetwork once, after that
+ * scoring only touches float arrays and allocates nothing. Layout matches DL4J:
+ * 2x2 convolution with 20 filters and ReLU, flattened channel first, 40 unit
+ * ReLU dense layer, then a 2 way softmax. Copies share the weights but not
+ * the scratch arrays, one copy per thread. The constructor scores a few
+ * random positions both ways and throws if any score is more than
+ * MAX_DIFFERENCE off the network's, so a change to the network's layers
+ * can't quietly change which moves are picked.
+ */
+public class FastBoardEvaluator implements BoardEvaluator {
+    public static final int SIZE = Board.DEFAULT_BOARD_SIZE;
+    public static final int KERNEL = 2;
+    public static final int CONV_SIZE = SIZE - KERNEL + 1; //9
+    public static final int FILTERS = 20;
+    public static final int HIDDEN = 40;
+    public static final int CONV_OUTPUTS = FILTERS * CONV_SIZE * CONV_SIZE; //1620
+    public static final double MAX_DIFFERENCE = 1e-5; //Float rounding is around 4e-7
+    private static final int CHECK_POSITIONS = 16;
+
+    //Weights, never changed after construction
+    private final float[] convWeights; //[filter][kernel row][kernel column]
+    private final float[] convBias;
+    private final float[] denseWeights; //[conv output][hidden]
+    private final float[] denseBias;
+    private final float[] outputWeights; //[hidden][2]
+    private final float[] outputBias;
+
+    //Scratch
+    private final float[] conv = new float[CONV_OUTPUTS];
+    private final float[] hidden = new float[HIDDEN];
+
+    public FastBoardEvaluator(MultiLayerNetwork network) {
+        if(network.getnLayers() != 3) {
+            throw new IllegalArgumentException("Expected the 3 layer BoardClassifier network, got " + network.getnLayers() + " layers.");
+        }
+        INDArray w0 = param(network.getLayer(0), "W", FILTERS * KERNEL * KERNEL);
+        convWeights = new float[FILTERS * KERNEL * KERNEL];
+        for(int f = 0; f < FILTERS; f++) {
+            for(int kx = 0; kx < KERNEL; kx++) {
+                for(int ky = 0; ky < KERNEL; ky++) {
+                    convWeights[(f * KERNEL + kx) * KERNEL + ky] = w0.getFloat(new int[]{f, 0, kx, ky});
+                }
+            }
+        }
+        convBias = vector(param(network.getLayer(0), "b", FILTERS));
+        denseWeights = matrix(param(network.getLayer(1), "W", CONV_OUTPUTS * HIDDEN), CONV_OUTPUTS, HIDDEN);
+        denseBias = vector(param(network.getLayer(1), "b", HIDDEN));
+        outputWeights = matrix(param(network.getLayer(2), "W", HIDDEN * 2), HIDDEN, 2);
+        outputBias = vector(param(network.getLayer(2), "b", 2));
+        check(network);
+    }
+
+    //Throws if this scores the check positions differently from network
+    private void check(MultiLayerNetwork network) {
+        Random rnd = new Random(CHECK_POSITIONS);
+        float[] inputs = new float[CHECK_POSITIONS * BoardEncoder.INPUT_SIZE];
+        for(int i = 0; i < CHECK_POSITIONS; i++) {
+            int side = i % 2;
+            BoardEncoder.encode(QuantizationReport.randomPosition(rnd, side).getBoard(), side, inputs, i * BoardEncoder.INPUT_SIZE);
+        }
+        double difference = maxDifference(this, new NetworkEvaluator(network), inputs, CHECK_POSITIONS);
+        if(difference > MAX_DIFFERENCE) {
+            throw new IllegalStateException("Java forward pass is " + difference + " off the network, more than "
+                    + MAX_DIFFERENCE + ". Has BoardClassifier changed?");
+        }
+    }
+
+    private FastBoardEvaluator(FastBoardEvaluator other) {
+        convWeights = other.convWeights;
+        convBias = other.convBias;
+        denseWeights = other.denseWeights;
+        denseBias = other.denseBias;
+        outputWeights = other.outputWeights;
+        outputBias = other.outputBias;
+    }
+
+    private static INDArray param(Layer layer, String key, int length) {
+        INDArray p = layer.getParam(key);
+        if(p == null || p.length() != length) {
+            throw new IllegalArgumentException("Parameter " + key + " of layer " + layer.getIndex()
+                    + " should have " + length + " values.");
+        }
+        return p;
+    }
+
+    private static float[] vector(INDArray a) {
+        float[] v = new float[a.length()];
+        for(int i = 0; i < v.length; i++) {
+            v[i] = a.getFloat(i);
+        }
+        return v;
+    }
+
+    private static float[] matrix(INDArray a, int rows, int columns) {
+        float[] m = new float[rows * columns];
+        for(int r = 0; r < rows; r++) {
+            for(int c = 0; c < columns; c++) {
+                m[r * columns + c] = a.getFloat(r, c);
+            }
+        }
+        return m;
+    }
+
+    @Override
+    public void evaluate(float[] inputs, int firstRow, int count, double[] out) {
+        for(int row = firstRow; row < firstRow + count; row++) {
+            out[row] = score(inputs, row * BoardEncoder.INPUT_SIZE);
+        }
+    }
+
+    //Score of one encoded board starting at offset
+    public double score(float[] in, int offset) {
+        convolve(in, offset, conv);
+        System.arraycopy(denseBias, 0, hidden, 0, HIDDEN);
+        for(int i = 0; i < CONV_OUTPUTS; i++) {
+            float v = conv[i];
+            if(v == 0) { //ReLU leaves a lot of zeros
+                continue;
+            }
+            int w = i * HIDDEN;
+            for(int j = 0; j < HIDDEN; j++) {
+                hidden[j] += v * denseWeights[w + j];
+            }
+        }
+        float z0 = outputBias[0];
+        float z1 = outputBias[1];
+        for(int j = 0; j < HIDDEN; j++) {
+            float h = hidden[j];
+            if(h > 0) {
+                z0 += h * outputWeights[j * 2];
+                z1 += h * outputWeights[j * 2 + 1];
+            }
+        }
+        return 1.0 / (1.0 + Math.exp(z1 - z0)); //Softmax of two outputs
+    }
+
+    //Convolution layer with ReLU, written channel first like the DL4J flatten
+    void convolve(float[] in, int offset, float[] out) {
+        for(int f = 0; f < FILTERS; f++) {
+            float w00 = convWeights[f * 4], w01 = convWeights[f * 4 + 1];
+            float w10 = convWeights[f * 4 + 2], w11 = convWeights[f * 4 + 3];
+            float b = convBias[f];
+            int o = f * CONV_SIZE * CONV_SIZE;
+            for(int x = 0; x < CONV_SIZE; x++) {
+                int row = offset + x * SIZE;
+                for(int y = 0; y < CONV_SIZE; y++) {
+                    float v = b + w00 * in[row + y] + w01 * in[row + y + 1]
+                            + w10 * in[row + SIZE + y] + w11 * in[row + SIZE + y + 1];
+                    out[o++] = (v > 0) ? v : 0;
+                }
+            }
+        }
+    }
+
+    //Weights for building other evaluators from this one, not to be changed
+    float[] getConvWeights() {return convWeights;}
+    float[] getConvBias() {return convBias;}
+    float[] getDenseWeights() {return denseWeights;}
+    float[] getDenseBias() {return denseBias;}
+    float[] getOutputWeights() {return outputWeights;}
+    float[] getOutputBias() {return outputBias;}
+
+    @Override
+    public BoardEvaluator copy() {
+        return new FastBoardEvaluator(this);
+    }
+
+    /**
+     * Largest difference between the scores of two evaluators over count encoded boards.
+     * Use it to check an evaluator against the network it was built from.
+     */
+    public static double maxDifference(BoardEvaluator a, BoardEvaluator b, float[] inputs, int count) {
+        double[] sa = new double[count];
+        double[] sb = new double[count];
+        a.evaluate(inputs, 0, count, sa);
+        b.evaluate(inputs, 0, count, sb);
+        double max = 0;
+        for(int i = 0; i < count; i++) {
+            max = Math.max(max, Math.abs(sa[i] - sb[i]));
+        }
+        return max;
+    }
+}
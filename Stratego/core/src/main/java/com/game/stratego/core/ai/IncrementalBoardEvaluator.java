@@ -0,0 +1,152 @@
+package com.game.stratego.core.ai;
+
+import com.game.stratego.core.stratego.Piece;
+
+/**
+ * FastBoardEvaluator that keeps the last board's first layer around.
+ * Changing a square only redoes the 2x2 windows that cover it (at most 4 per
+ * filter) and adds their change to the dense layer sums, instead of running
+ * the whole forward pass. evaluate compares each row with the board it holds
+ * and only updates the squares that differ, so a batch of boards one move
+ * apart, like the ones scoreMoves builds, costs a few windows per board.
+ * The sums are rebuilt from scratch every REFRESH_INTERVAL updates so float
+ * error can't build up. One instance per thread.
+ */
+public class IncrementalBoardEvaluator implements BoardEvaluator {
+    public static final int REFRESH_INTERVAL = 4096;
+    public static final int MAX_CHANGED_SQUARES = 6; //Past this a full pass is cheaper than updating square by square
+
+    private static final int SIZE = FastBoardEvaluator.SIZE;
+    private static final int CONV_SIZE = FastBoardEvaluator.CONV_SIZE;
+    private static final int FILTERS = FastBoardEvaluator.FILTERS;
+    private static final int HIDDEN = FastBoardEvaluator.HIDDEN;
+    private static final int CONV_OUTPUTS = FastBoardEvaluator.CONV_OUTPUTS;
+
+    private final FastBoardEvaluator source;
+    private final float[] convWeights;
+    private final float[] convBias;
+    private final float[] denseWeights;
+    private final float[] denseBias;
+    private final float[] outputWeights;
+    private final float[] outputBias;
+
+    private final float[] input = new float[BoardEncoder.INPUT_SIZE];
+    private final float[] conv = new float[CONV_OUTPUTS];
+    private final float[] sums = new float[HIDDEN]; //Dense layer before ReLU
+    private int updates;
+
+    public IncrementalBoardEvaluator(FastBoardEvaluator source) {
+        this.source = source;
+        convWeights = source.getConvWeights();
+        convBias = source.getConvBias();
+        denseWeights = source.getDenseWeights();
+        denseBias = source.getDenseBias();
+        outputWeights = source.getOutputWeights();
+        outputBias = source.getOutputBias();
+        refresh();
+    }
+
+    @Override
+    public void evaluate(float[] inputs, int firstRow, int count, double[] out) {
+        for(int row = firstRow; row < firstRow + count; row++) {
+            int offset = row * BoardEncoder.INPUT_SIZE;
+            int changed = 0;
+            for(int sq = 0; sq < BoardEncoder.INPUT_SIZE && changed <= MAX_CHANGED_SQUARES; sq++) {
+                if(inputs[offset + sq] != input[sq]) {
+                    changed++;
+                }
+            }
+            if(changed > MAX_CHANGED_SQUARES) { //A different position, cheaper to start over
+                System.arraycopy(inputs, offset, input, 0, BoardEncoder.INPUT_SIZE);
+                refresh();
+            }
+            else {
+                for(int sq = 0; sq < BoardEncoder.INPUT_SIZE; sq++) {
+                    if(inputs[offset + sq] != input[sq]) {
+                        setInput(sq, inputs[offset + sq]);
+                    }
+                }
+            }
+            out[row] = score();
+        }
+    }
+
+    //Loads a whole board as seen by teamNum
+    public void setBoard(Piece[][] board, int teamNum) {
+        BoardEncoder.encode(board, teamNum, input, 0);
+        refresh();
+    }
+
+    //Changes one square, for boards loaded with setBoard and the same teamNum
+    public void setSquare(int x, int y, Piece p, int teamNum) {
+        float v = BoardEncoder.value(p, teamNum);
+        int sq = x * SIZE + y;
+        if(input[sq] != v) {
+            setInput(sq, v);
+        }
+    }
+
+    private void setInput(int sq, float v) {
+        input[sq] = v;
+        int x = sq / SIZE;
+        int y = sq % SIZE;
+        for(int cx = Math.max(0, x - 1); cx <= Math.min(CONV_SIZE - 1, x); cx++) {
+            for(int cy = Math.max(0, y - 1); cy <= Math.min(CONV_SIZE - 1, y); cy++) {
+                int at = cx * SIZE + cy;
+                for(int f = 0; f < FILTERS; f++) {
+                    float a = convBias[f] + convWeights[f * 4] * input[at] + convWeights[f * 4 + 1] * input[at + 1]
+                            + convWeights[f * 4 + 2] * input[at + SIZE] + convWeights[f * 4 + 3] * input[at + SIZE + 1];
+                    if(a < 0) a = 0;
+                    int i = (f * CONV_SIZE + cx) * CONV_SIZE + cy;
+                    float delta = a - conv[i];
+                    if(delta != 0) {
+                        conv[i] = a;
+                        int w = i * HIDDEN;
+                        for(int j = 0; j < HIDDEN; j++) {
+                            sums[j] += delta * denseWeights[w + j];
+                        }
+                    }
+                }
+            }
+        }
+        if(++updates >= REFRESH_INTERVAL) {
+            refresh();
+        }
+    }
+
+    //Rebuilds the first layer and the dense sums from the input
+    private void refresh() {
+        source.convolve(input, 0, conv);
+        System.arraycopy(denseBias, 0, sums, 0, HIDDEN);
+        for(int i = 0; i < CONV_OUTPUTS; i++) {
+            float v = conv[i];
+            if(v == 0) {
+                continue;
+            }
+            int w = i * HIDDEN;
+            for(int j = 0; j < HIDDEN; j++) {
+                sums[j] += v * denseWeights[w + j];
+            }
+        }
+        updates = 0;
+    }
+
+    //Score of the board held now
+    public double score() {
+        float z0 = outputBias[0];
+        float z1 = outputBias[1];
+        for(int j = 0; j < HIDDEN; j++) {
+            float h = sums[j];
+            if(h > 0) {
+                z0 += h * outputWeights[j * 2];
+                z1 += h * outputWeights[j * 2 + 1];
+            }
+        }
+        return 1.0 / (1.0 + Math.exp(z1 - z0));
+    }
+
+    @Override
+    public BoardEvaluator copy() {
+        return new IncrementalBoardEvaluator(source);
+    }
+}
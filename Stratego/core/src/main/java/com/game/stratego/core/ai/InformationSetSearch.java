@@ -0,0 +1,389 @@
+package com.game.stratego.core.ai;
+
+import com.game.stratego.core.stratego.Board;
+import com.game.stratego.core.stratego.Move;
+import com.game.stratego.core.stratego.MoveList;
+import com.game.stratego.core.stratego.Piece;
+import com.game.stratego.core.stratego.Rules;
+import com.game.stratego.core.stratego.UndoRecord;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Information set Monte Carlo tree search that only uses what the moving team
+ * can know. Every simulation deals the opponent's unrevealed pieces out again
+ * at random (see determinize), then walks one shared tree with UCB, plays
+ * random moves to the end or to the rollout limit, and backs up the result.
+ * Each thread grows its own tree (root parallel) and the root visit counts are
+ * summed in move order, so the pick doesn't depend on which thread finished first.
+ */
+public class InformationSetSearch {
+    public static final double DEFAULT_EXPLORATION = 0.7;
+    public static final int DEFAULT_ROLLOUT_DEPTH = 60;
+
+    private final int threads;
+    private final ExecutorService pool;
+    private long timeLimit; //Milliseconds, 0 for none
+    private int simulationLimit; //Per thread, 0 for none
+    private int rolloutDepth;
+    private double exploration;
+    private long seed;
+
+    private long simulations;
+    private long elapsed;
+
+    public InformationSetSearch(int threads, long timeLimit, int simulationLimit) {
+        if(timeLimit <= 0 && simulationLimit <= 0) {
+            throw new IllegalArgumentException("Need a time or simulation limit.");
+        }
+        this.threads = Math.max(1, threads);
+        this.timeLimit = timeLimit;
+        this.simulationLimit = simulationLimit;
+        this.rolloutDepth = DEFAULT_ROLLOUT_DEPTH;
+        this.exploration = DEFAULT_EXPLORATION;
+        this.seed = System.nanoTime();
+        this.pool = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+            private int count = 0;
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ISMCTS " + (count++));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Finds a move for teamNum. Only the revealed and moved flags of the
+     * other team's pieces are used, not their ranks. Returns null if there are no moves.
+     */
+    public Move findMove(Piece[][] board, final int teamNum) {
+        final MoveList rootMoves = new MoveList();
+        Board b = new Board();
+        b.setBoard(board);
+        b.getLegalMoves(teamNum, rootMoves);
+        if(rootMoves.isEmpty()) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        final long deadline = start + timeLimit;
+        ArrayList<Future<Worker>> futures = new ArrayList<Future<Worker>>();
+        for(int i = 0; i < threads; i++) {
+            final Worker w = new Worker(board, teamNum, new Random(seed + i));
+            futures.add(pool.submit(new Callable<Worker>() {
+                @Override
+                public Worker call() {
+                    w.run(deadline);
+                    return w;
+                }
+            }));
+        }
+        long[] visits = new long[rootMoves.size()];
+        simulations = 0;
+        try {
+            for(Future<Worker> f : futures) {
+                Worker w = f.get();
+                simulations += w.simulations;
+                for(Node child : w.root.children) {
+                    for(int i = 0; i < rootMoves.size(); i++) {
+                        if(sameMove(rootMoves.get(i), child.move)) {
+                            visits[i] += child.visits;
+                            break;
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            for(Future<Worker> f : futures) {
+                f.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        elapsed = System.currentTimeMillis() - start;
+        seed += threads;
+        int best = 0;
+        for(int i = 1; i < visits.length; i++) {
+            if(visits[i] > visits[best]) {
+                best = i;
+            }
+        }
+        return rootMoves.toMove(best);
+    }
+
+    /**
+     * Copy of the board where the other team's unrevealed pieces have been
+     * shuffled between their squares. Bombs and flags only go to pieces that
+     * have not moved, so every result could be the real board.
+     */
+    public static Piece[][] determinize(Piece[][] board, int teamNum, Random rnd) {
+        int size = board.length;
+        Piece[][] copy = new Piece[size][size];
+        int[] still = new int[size * size];
+        int[] moved = new int[size * size];
+        char[] ranks = new char[size * size];
+        int stillCount = 0, movedCount = 0, hidden = 0, immovable = 0;
+        for(int x = 0; x < size; x++) {
+            for(int y = 0; y < size; y++) {
+                Piece p = board[x][y];
+                if(p == null) {
+                    continue;
+                }
+                if(p.getTeamNumber() == teamNum || p.isRevealed()) {
+                    copy[x][y] = copyOf(p, p.getRank());
+                    continue;
+                }
+                if(p.hasMoved()) {
+                    moved[movedCount++] = x * size + y;
+                }
+                else {
+                    still[stillCount++] = x * size + y;
+                }
+                if(!Rules.canMove(p.getRankIndex())) {
+                    ranks[hidden++] = ranks[immovable]; //Bombs and flags are kept at the front
+                    ranks[immovable++] = p.getRank();
+                }
+                else {
+                    ranks[hidden++] = p.getRank();
+                }
+            }
+        }
+        //Bombs and flags go to random unmoved squares, the rest are dealt over what is left
+        shuffle(still, stillCount, rnd);
+        for(int i = 0; i < immovable; i++) {
+            place(board, copy, still[i], ranks[i], size);
+        }
+        int[] squares = new int[hidden - immovable];
+        int n = 0;
+        for(int i = immovable; i < stillCount; i++) squares[n++] = still[i];
+        for(int i = 0; i < movedCount; i++) squares[n++] = moved[i];
+        shuffle(squares, n, rnd);
+        for(int i = 0; i < n; i++) {
+            place(board, copy, squares[i], ranks[immovable + i], size);
+        }
+        return copy;
+    }
+
+    private static void place(Piece[][] board, Piece[][] copy, int square, char rank, int size) {
+        int x = square / size;
+        int y = square % size;
+        copy[x][y] = copyOf(board[x][y], rank);
+    }
+
+    private static Piece copyOf(Piece p, char rank) {
+        Piece c = new Piece(rank, p.getTeamNumber());
+        c.setIsRevealed(p.isRevealed());
+        c.setHasMoved(p.hasMoved());
+        return c;
+    }
+
+    private static void shuffle(int[] a, int n, Random rnd) {
+        for(int i = n - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            int t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+    }
+
+    //Compares source and destination, ignoring flags
+    private static boolean sameMove(int a, int b) {
+        return Move.source(a) == Move.source(b) && Move.destination(a) == Move.destination(b);
+    }
+
+    private static class Node {
+        final Node parent;
+        final int move;
+        final int player; //Team that made the move into this node
+        final ArrayList<Node> children = new ArrayList<Node>(4);
+        int visits;
+        int available;
+        double wins;
+
+        Node(Node parent, int move, int player) {
+            this.parent = parent;
+            this.move = move;
+            this.player = player;
+        }
+
+        Node child(int move) {
+            for(int i = 0; i < children.size(); i++) {
+                if(sameMove(children.get(i).move, move)) {
+                    return children.get(i);
+                }
+            }
+            return null;
+        }
+    }
+
+    //One thread's tree and scratch state
+    private class Worker {
+        final Piece[][] observed;
+        final int teamNum;
+        final Random rnd;
+        final Node root;
+        final Board board = new Board();
+        final MoveList moves = new MoveList();
+        final ArrayList<UndoRecord> undo = new ArrayList<UndoRecord>();
+        long simulations;
+
+        Worker(Piece[][] observed, int teamNum, Random rnd) {
+            this.observed = observed;
+            this.teamNum = teamNum;
+            this.rnd = rnd;
+            this.root = new Node(null, -1, 1 - teamNum);
+        }
+
+        void run(long deadline) {
+            while(!Thread.currentThread().isInterrupted()
+                    && (simulationLimit <= 0 || simulations < simulationLimit)
+                    && (timeLimit <= 0 || System.currentTimeMillis() < deadline)) {
+                simulate();
+                simulations++;
+            }
+        }
+
+        void simulate() {
+            board.setBoard(determinize(observed, teamNum, rnd));
+            int side = teamNum;
+            Node node = root;
+            //Select down the tree while every legal move has been tried
+            while(!board.isGameFinished()) {
+                board.getLegalMoves(side, moves);
+                if(moves.isEmpty()) {
+                    break;
+                }
+                Node best = null;
+                double bestValue = -1;
+                int unexpanded = -1;
+                for(int i = 0; i < moves.size(); i++) {
+                    Node c = node.child(moves.get(i));
+                    if(c == null) {
+                        if(unexpanded == -1 || rnd.nextInt(i + 1) == 0) {
+                            unexpanded = moves.get(i);
+                        }
+                        continue;
+                    }
+                    c.available++;
+                    double value = c.wins / c.visits + exploration * Math.sqrt(Math.log(c.available) / c.visits);
+                    if(value > bestValue) {
+                        bestValue = value;
+                        best = c;
+                    }
+                }
+                if(unexpanded != -1) {
+                    Node c = new Node(node, unexpanded, side);
+                    node.children.add(c);
+                    c.available++;
+                    play(unexpanded);
+                    node = c;
+                    side = 1 - side;
+                    break;
+                }
+                play(best.move);
+                node = best;
+                side = 1 - side;
+            }
+            double result = rollout(side); //1 if teamNum won, 0 if it lost
+            for(Node n = node; n != null; n = n.parent) {
+                n.visits++;
+                n.wins += (n.player == teamNum) ? result : 1 - result;
+            }
+            for(int i = undo.size() - 1; i >= 0; i--) {
+                board.unmakeMove(undo.get(i));
+            }
+            undo.clear();
+        }
+
+        double rollout(int side) {
+            for(int ply = 0; ply < rolloutDepth && !board.isGameFinished(); ply++) {
+                board.getLegalMoves(side, moves);
+                if(moves.isEmpty()) { //A player who can't move loses
+                    return (side == teamNum) ? 0 : 1;
+                }
+                play(moves.get(rnd.nextInt(moves.size())));
+                side = 1 - side;
+            }
+            if(board.isGameFinished()) {
+                return (board.getWinner() == teamNum) ? 1 : 0;
+            }
+            return 0.5; //Undecided at the rollout limit
+        }
+
+        void play(int move) {
+            undo.add(board.makeMove(move));
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    public long getTimeLimit() {
+        return timeLimit;
+    }
+
+    public void setTimeLimit(long timeLimit) {
+        this.timeLimit = timeLimit;
+    }
+
+    public int getSimulationLimit() {
+        return simulationLimit;
+    }
+
+    public void setSimulationLimit(int simulationLimit) {
+        this.simulationLimit = simulationLimit;
+    }
+
+    public int getRolloutDepth() {
+        return rolloutDepth;
+    }
+
+    public void setRolloutDepth(int rolloutDepth) {
+        this.rolloutDepth = rolloutDepth;
+    }
+
+    public double getExploration() {
+        return exploration;
+    }
+
+    public void setExploration(double exploration) {
+        this.exploration = exploration;
+    }
+
+    //Fixes the random numbers so runs with a simulation limit can be repeated
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    //Stats of the last findMove
+    public long getSimulations() {
+        return simulations;
+    }
+
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    public double getSimulationsPerSecond() {
+        return (elapsed == 0) ? 0 : simulations * 1000.0 / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return "InformationSetSearch[threads=" + threads + ", simulations=" + simulations + ", ms=" + elapsed
+                + ", simulationsPerSecond=" + String.format("%.0f", getSimulationsPerSecond()) + "]";
+    }
+}
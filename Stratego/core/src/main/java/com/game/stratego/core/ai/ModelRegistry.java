@@ -0,0 +1,133 @@
+package com.game.stratego.core.ai;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Loads each saved network once and shares it between AIs.
+ * acquire hands out a counted handle, and a model nobody holds stays loaded
+ * until more than maxIdle unused models are kept, then the least recently
+ * used one is dropped. Shared networks must only be used for output, and
+ * callers synchronize on the network while doing so.
+ */
+public class ModelRegistry {
+    public static final int DEFAULT_MAX_IDLE = 2;
+
+    private static final ModelRegistry SHARED = new ModelRegistry(DEFAULT_MAX_IDLE);
+
+    private final Map<String, Entry> models = new HashMap<String, Entry>();
+    private final LinkedHashMap<String, Entry> idle = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private int maxIdle;
+    private long loads;
+
+    public ModelRegistry(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    public static ModelRegistry getShared() {
+        return SHARED;
+    }
+
+    //Path is relative to assets/net, the same as NeuralNetAI.loadNet
+    public synchronized Handle acquire(String path) throws IOException {
+        Entry e = models.get(path);
+        if(e == null) {
+            e = new Entry(path, NeuralNetAI.loadNet(path));
+            models.put(path, e);
+            loads++;
+        }
+        if(e.refs == 0) {
+            idle.remove(path);
+        }
+        e.refs++;
+        return new Handle(this, e);
+    }
+
+    private synchronized void release(Entry e) {
+        e.refs--;
+        if(e.refs == 0) {
+            idle.put(e.path, e);
+            trim();
+        }
+    }
+
+    private void trim() {
+        Iterator<Entry> it = idle.values().iterator();
+        while(idle.size() > maxIdle && it.hasNext()) {
+            Entry e = it.next();
+            it.remove();
+            models.remove(e.path);
+        }
+    }
+
+    //Drops every model that has no handles out
+    public synchronized void evictIdle() {
+        for(String path : idle.keySet()) {
+            models.remove(path);
+        }
+        idle.clear();
+    }
+
+    public synchronized void setMaxIdle(int maxIdle) {
+        this.maxIdle = maxIdle;
+        trim();
+    }
+
+    public synchronized boolean isLoaded(String path) {
+        return models.containsKey(path);
+    }
+
+    public synchronized int getLoadedCount() {
+        return models.size();
+    }
+
+    //Number of times a network was read from disk
+    public synchronized long getLoads() {
+        return loads;
+    }
+
+    private static class Entry {
+        final String path;
+        final MultiLayerNetwork network;
+        int refs;
+
+        Entry(String path, MultiLayerNetwork network) {
+            this.path = path;
+            this.network = network;
+        }
+    }
+
+    /**
+     * One reference to a shared network. Release it once when done.
+     */
+    public static class Handle {
+        private final ModelRegistry registry;
+        private final Entry entry;
+        private boolean released;
+
+        private Handle(ModelRegistry registry, Entry entry) {
+            this.registry = registry;
+            this.entry = entry;
+        }
+
+        public MultiLayerNetwork getNetwork() {
+            return entry.network;
+        }
+
+        public String getPath() {
+            return entry.path;
+        }
+
+        public synchronized void release() {
+            if(!released) {
+                released = true;
+                registry.release(entry);
+            }
+        }
+    }
+}
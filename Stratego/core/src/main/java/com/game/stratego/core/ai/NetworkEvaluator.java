@@ -0,0 +1,36 @@
+package com.game.stratego.core.ai;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * Scores boards with a DL4J network. Calls synchronize on the network, so
+ * evaluators sharing a network take turns. copy() clones the network.
+ */
+public class NetworkEvaluator implements BoardEvaluator {
+    private final MultiLayerNetwork network;
+    private final BoardEncoder encoder = new BoardEncoder();
+
+    public NetworkEvaluator(MultiLayerNetwork network) {
+        this.network = network;
+    }
+
+    @Override
+    public void evaluate(float[] inputs, int firstRow, int count, double[] out) {
+        synchronized (network) {
+            INDArray output = network.output(encoder.batch(inputs, firstRow, count), false); //Inference mode, dropout off
+            for(int i = 0; i < count; i++) {
+                out[firstRow + i] = output.getDouble(i, 0);
+            }
+        }
+    }
+
+    @Override
+    public BoardEvaluator copy() {
+        return new NetworkEvaluator(network.clone());
+    }
+
+    public MultiLayerNetwork getNetwork() {
+        return network;
+    }
+}
@@ -1,24 +1,51 @@
 package com.game.stratego.core.ai;
 
 import com.game.stratego.core.stratego.Board;
+import com.game.stratego.core.stratego.BoardGeometry;
 import com.game.stratego.core.stratego.Move;
+import com.game.stratego.core.stratego.MoveGenerator;
+import com.game.stratego.core.stratego.MoveList;
 import com.game.stratego.core.stratego.Piece;
+import com.game.stratego.core.stratego.Rules;
+import com.game.stratego.core.stratego.UndoRecord;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 import org.deeplearning4j.util.ModelSerializer;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.ops.transforms.Transforms;
 
-import java.awt.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 /**
  * Created by user on 3/18/2017.
  */
 public class NeuralNetAI {
+    public static final int DEFAULT_CACHE_SIZE = 1 << 16;
+    public static final int PARALLEL_MIN_ROWS = 16; //Smaller batches aren't worth handing to other threads
+    private static final long FLIPPED_KEY = 0x6C8E9CF570932BD5L; //Separates getScoreFlipped entries from getScore entries
+
     private Piece[][] board;
     private MultiLayerNetwork network;
+    private ModelRegistry.Handle handle; //Set when the network is shared through the ModelRegistry
+    private EvaluationCache cache;
+    private final MoveList possibleMoves = new MoveList();
+    private double[] scores = new double[64];
+    private long[] keys = new long[64];
+    private int[] pending = new int[64]; //Move index of each row in the batch
+    private final BoardEncoder encoder = new BoardEncoder();
+    private AlphaBetaSearch search; //Looks deeper than one move when set
+    private InformationSetSearch informationSetSearch; //Plays without seeing hidden ranks when set
+    private ExecutorService scoringPool; //Scores big batches on several threads when set
+    private Random random; //Picks random moves, Math.random when null
+    private long moveTimeLimit; //Milliseconds given to the search for each move, 0 to keep the search's own limit
+    private BoardEvaluator evaluator;
+    private BoardEvaluator[] replicas; //One per scoring worker
+    private double[] rowScores = new double[64];
+    private final float[] single = new float[BoardEncoder.INPUT_SIZE];
 
     public NeuralNetAI(boolean isNewNetwork, String path) {
         if(isNewNetwork) {
@@ -26,63 +53,56 @@ public class NeuralNetAI {
         }
         else {
             try {
-                this.network = NeuralNetAI.loadNet(path);
+                this.handle = ModelRegistry.getShared().acquire(path);
+                this.network = handle.getNetwork();
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
         this.board = null;
+        this.cache = new EvaluationCache(DEFAULT_CACHE_SIZE);
+        this.evaluator = (network != null) ? new NetworkEvaluator(network) : null;
     }
 
     public Move getMove(Piece[][] nBoard, int teamNum, boolean showText, boolean randomMoves) {
         this.board = nBoard;
         if(showText) System.out.println("Finding all possible moves.");
         //Find all possible moves
-        ArrayList<Move> possibleMoves = new ArrayList<Move>();
-        for(int x1 = 0; x1 < Board.DEFAULT_BOARD_SIZE; x1++) {
-            for(int y1 = 0; y1 < Board.DEFAULT_BOARD_SIZE; y1++) {
-                for(int x2 = 0; x2 < Board.DEFAULT_BOARD_SIZE; x2++) {
-                    for(int y2 = 0; y2 < Board.DEFAULT_BOARD_SIZE; y2++) {
-                        if(checkMove(new Point(x1,y1), new Point(x2,y2), teamNum)) {
-                            Move m = new Move(new Point(x1,y1), new Point(x2,y2));
-                            if(showText) System.out.println(m.toString());
-                            possibleMoves.add(m);
-                        }
-                    }
-                }
+        MoveGenerator.generateMoves(this.board, teamNum, possibleMoves);
+        if(showText) {
+            for(int x = 0; x < possibleMoves.size(); x++) {
+                System.out.println(Move.toString(possibleMoves.get(x)));
             }
         }
 
-        if(showText) System.out.println("Finding all possible boards.");
-        //Use list of possible moves to make list of possible boards
-        ArrayList<Piece[][]> possibleBoards = new ArrayList<Piece[][]>();
-        Board temp = new Board();
-        temp.setBoard(Board.cloneBoard(this.board));
-        for(Move m : possibleMoves) {
-            temp.movePiece(m.source.x, m.source.y, m.destination.x, m.destination.y);
-            possibleBoards.add(temp.getBoard());
-            temp = new Board();
-            temp.setBoard(Board.cloneBoard(this.board));
-        }
-
         if(showText) System.out.println("Finding the board with the highest score.");
-        //Find the board with the highest score
-        if(!possibleBoards.isEmpty()) {
+        //Score each possible move in place on a single board
+        if(!possibleMoves.isEmpty()) {
             if(randomMoves) {
-                int rnd = (int)(Math.random()*possibleBoards.size());
-                return possibleMoves.get(rnd);
+                int rnd = (random == null) ? (int)(Math.random()*possibleMoves.size()) : random.nextInt(possibleMoves.size());
+                return possibleMoves.toMove(rnd);
+            }
+            else if(informationSetSearch != null) {
+                if(moveTimeLimit > 0) informationSetSearch.setTimeLimit(moveTimeLimit);
+                Move best = informationSetSearch.findMove(this.board, teamNum);
+                if(showText) System.out.println(informationSetSearch);
+                return best;
             }
             else {
+                Board temp = new Board();
+                temp.setBoard(this.board);
+                temp.setSideToMove(teamNum);
+                if(search != null) {
+                    if(moveTimeLimit > 0) search.setTimeLimit(moveTimeLimit);
+                    Move best = search.findMove(temp, teamNum);
+                    if(showText) System.out.println(search);
+                    return best;
+                }
+                double[] scores = scoreMoves(temp, teamNum, possibleMoves);
                 int highestScoreIndex = -1;
                 double highscore = 0;
-                for (int x = 0; x < possibleBoards.size(); x++) {
-                    double score;
-                    if(teamNum == 1) {
-                        score = getScore(possibleBoards.get(x));
-                    }
-                    else {
-                        score = getScoreFlipped(possibleBoards.get(x));
-                    }
+                for (int x = 0; x < possibleMoves.size(); x++) {
+                    double score = scores[x];
                     //System.out.println("Score " + x + ": " + score);
                     if (highestScoreIndex != -1) {
                         if (score > (highscore)) {
@@ -94,11 +114,16 @@ public class NeuralNetAI {
                         highscore = score;
                     }
                 }
-                if (showText) System.out.println("Current board state: \n" + boardString(this.board));
-                if (showText) System.out.println("Desired board state: \n" + boardString(possibleBoards.get(highestScoreIndex)));
-                if (showText) System.out.println("Desired move: " + possibleMoves.get(highestScoreIndex));
-                if (showText) System.out.println("Desired board's score: " + highscore);
-                return possibleMoves.get(highestScoreIndex);
+                if (showText) {
+                    System.out.println("Current board state: \n" + boardString(this.board));
+                    UndoRecord u = temp.makeMove(possibleMoves.get(highestScoreIndex));
+                    System.out.println("Desired board state: \n" + boardString(temp.getBoard()));
+                    if(u != null) temp.unmakeMove(u);
+                    System.out.println("Desired move: " + Move.toString(possibleMoves.get(highestScoreIndex)));
+                    System.out.println("Desired board's score: " + highscore);
+                    if(cache != null) System.out.println(cache);
+                }
+                return possibleMoves.toMove(highestScoreIndex);
             }
         }
         return null;
@@ -128,250 +153,154 @@ public class NeuralNetAI {
         return str;
     }
 
-    public double getScore(Piece[][] board) {
-        //Get the input
-        INDArray input = getINDArray(board);
-        //Reformat input
-        //get output
-        INDArray output = network.output(input,true);
-        return output.getDouble(0);
-    }
-
-    public double getScoreFlipped(Piece[][] board) {
-        //Get the input
-        INDArray input = getINDArrayFlipped(board);
-        //Reformat input
-        //get output
-        INDArray output = network.output(input,true);
-        return output.getDouble(0);
-    }
-
-    public boolean checkMove(Point p1, Point p2, int teamNum) {
-        int x1 = p1.x;
-        int y1 = p1.y;
-        int x2 = p2.x;
-        int y2 = p2.y;
-
-        if (x1 >= Board.DEFAULT_BOARD_SIZE || y1 >= Board.DEFAULT_BOARD_SIZE
-                || x2 >= Board.DEFAULT_BOARD_SIZE || y2 >= Board.DEFAULT_BOARD_SIZE) { //move is off the board
-            return false;
-        } else if (isWater(x1, y1) || isWater(x2, y2)) {
-            return false;
-        } else if (board[x1][y1] == null
-                || board[x1][y1].getRank() == 'B'
-                || board[x1][y1].getRank() == 'F') { //Illegal moves
-            return false;
-        } else if (board[x1][y1].getTeamNumber() != teamNum){
-            return false;
-        } else if ((board[x1][y1].getRank() != '9') &&
-                ((Math.abs(x1 - x2) > 1 || Math.abs(y1 - y2) > 1) //Move must be 1 space away (non-scout)
-                        || (Math.abs(x1 - x2) == 1 && Math.abs(y1 - y2) == 1))) { //No diagonals
-            return false;
-        } else if ((board[x1][y1].getRank() == '9') &&
-                ((Math.abs(x1 - x2) >= 1 && Math.abs(y1 - y2) >= 1)
-                        || (Math.abs(x1 - x2) == 1 && Math.abs(y1 - y2) == 1))) { //No diagonals
-            return false;
-        } else if ((board[x1][y1].getRank() == '9') &&
-                someoneInTheWay(x1, y1, x2, y2)) {
-            return false;
-        } else if (board[x2][y2] == null) { //if the spot is empty
-            return true;
-        } else if (board[x1][y1].getTeamNumber() == board[x2][y2].getTeamNumber()) { //if they're on the same team
-            return false;
-        } else {
-            if (board[x2][y2].getRank() == 'F') { //Flag found
-                return true;
-            } else if (board[x2][y2].getRank() == 'B') { //Bomb found
-                return true;
-            } else if (board[x1][y1].getRank() == 'S') { //Spy is attacking
-                if (board[x2][y2].getRank() == '1') { //if the spy is attacking a marshal
-                    return true;
-                } else {
-
-                    return true;
-                }
-            } else {
-                return true;
+    /**
+     * Scores the board after each move from teamNum's point of view. Boards that
+     * are not cached are stacked into one [N,1,10,10] batch and run through the
+     * network in a single call. The returned array is reused by the next call.
+     */
+    public double[] scoreMoves(Board b, int teamNum, MoveList moves) {
+        int n = moves.size();
+        if(scores.length < n) {
+            scores = new double[Math.max(n, scores.length * 2)];
+            keys = new long[scores.length];
+            pending = new int[scores.length];
+            rowScores = new double[scores.length];
+        }
+        long side = (teamNum == 1 ? 0 : FLIPPED_KEY);
+        float[] buffer = encoder.buffer(n);
+        int rows = 0;
+        for(int x = 0; x < n; x++) {
+            UndoRecord u = b.makeMove(moves.get(x));
+            keys[x] = b.getHash() ^ side;
+            double cached = (cache != null) ? cache.probe(keys[x]) : Double.NaN;
+            if(Double.isNaN(cached)) {
+                pending[rows] = x;
+                BoardEncoder.encode(b.getBoard(), teamNum, buffer, rows * BoardEncoder.INPUT_SIZE);
+                rows++;
             }
-
+            else {
+                scores[x] = cached;
+            }
+            if(u != null) b.unmakeMove(u);
         }
-    }
-
-    public static boolean isWater(int x, int y) {
-        if ((x == 2 && y == 4) //Check if the point is in the water
-                || (x == 2 && y == 5)
-                || (x == 3 && y == 4)
-                || (x == 3 && y == 5)
-                || (x == 6 && y == 4)
-                || (x == 6 && y == 5)
-                || (x == 7 && y == 4)
-                || (x == 7 && y == 5)) {
-            return true;
+        if(rows > 0) {
+            if(scoringPool != null && rows >= PARALLEL_MIN_ROWS) {
+                scoreParallel(buffer, rows);
+            }
+            else {
+                evaluator.evaluate(buffer, 0, rows, rowScores);
+            }
+            for(int i = 0; i < rows; i++) {
+                int x = pending[i];
+                scores[x] = rowScores[i];
+                if(cache != null) {
+                    cache.store(keys[x], scores[x]);
+                }
+            }
         }
-        return false;
+        return scores;
     }
 
-    private boolean someoneInTheWay(int x1, int y1, int x2, int y2) {
-
-        if (Math.abs(x1 - x2) == 0) { //Is vertical move
-            if (y1 > y2) {
-                for (int y = y2 + 1; y < y1; y++) {
-                    if (board[x1][y] != null
-                            || isWater(x1, y)) {
-                        return true;
-                    }
-                }
-            } else {
-                for (int y = y1 + 1; y < y2; y++) {
-                    if (board[x1][y] != null
-                            || isWater(x1, y)) {
-                        return true;
-                    }
+    //Splits the rows into one fixed range per replica, each range writes its own slots of scores
+    private void scoreParallel(final float[] buffer, int rows) {
+        int parts = Math.min(replicas.length, rows);
+        List<Future<?>> futures = new ArrayList<Future<?>>(parts);
+        for(int w = 0; w < parts; w++) {
+            final int first = rows * w / parts;
+            final int count = rows * (w + 1) / parts - first;
+            final BoardEvaluator replica = replicas[w];
+            futures.add(scoringPool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    replica.evaluate(buffer, first, count, rowScores);
                 }
+            }));
+        }
+        try {
+            for(Future<?> f : futures) {
+                f.get();
             }
-        } else { //Is horizontal move
-            if (x1 > x2) {
-                for (int x = x2 + 1; x < x1; x++) {
-                    if (board[x][y1] != null
-                            || isWater(x, y1)) {
-                        return true;
-                    }
-                }
-            } else {
-                for (int x = x1 + 1; x < x2; x++) {
-                    if (board[x][y1] != null
-                            || isWater(x, y1)) {
-                        return true;
-                    }
-                }
+        } catch (InterruptedException e) {
+            for(Future<?> f : futures) {
+                f.cancel(true);
             }
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while scoring moves.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Scoring moves failed.", e.getCause());
         }
-        return false;
     }
 
-    public static INDArray getINDArray(Piece[][] board) {
-        float[][] b1 = new float[Board.DEFAULT_BOARD_SIZE][Board.DEFAULT_BOARD_SIZE]; //Player's immoveable pieces
-
-        for(int y = 0; y < Board.DEFAULT_BOARD_SIZE; y++) {
-            for(int x = 0; x < Board.DEFAULT_BOARD_SIZE; x++) {
-                if(board[x][y] == null) {continue;}
-                if(board[x][y].getTeamNumber() == 1) {
-                    char rank = board[x][y].getRank();
-                    if(rank == 'F') {
-                        b1[x][y] = 12;
-                    }
-                    else if (rank == 'B') {
-                        b1[x][y] = 11;
-                    }
-                    else if (rank == 'S') {
-                        b1[x][y] = 10;
-                    }
-                    else {
-                        b1[x][y] = getFloat(rank);
-                    }
-                }
-                else {
-                    char rank = board[x][y].getRank();
-                    if(rank == 'F') {
-                        b1[x][y] = 12 + 20;
-                    }
-                    else if (rank == 'B') {
-                        b1[x][y] = 11 + 20;
-                    }
-                    else if (rank == 'S') {
-                        b1[x][y] = 10 + 20;
-                    }
-                    else {
-                        b1[x][y] = getFloat(rank) + 20;
-                    }
-                }
-            } //End for y
-        } //End for x
-        float min = 0;
-        float max = 32;
-        float[] f = new float[(Board.DEFAULT_BOARD_SIZE * Board.DEFAULT_BOARD_SIZE) * 1];
-        int index = 0;
-        for(int x = 0; x < Board.DEFAULT_BOARD_SIZE; x++) {
-            for (int y = 0; y < Board.DEFAULT_BOARD_SIZE; y++) {
-                if((b1[x][y]) != 0)
-                    f[index] = ((b1[x][y])-min)/(max-min);
-                else
-                    f[index] = 0;
-                index++;
+    /**
+     * Scores uncached moves on the executor, split across the given number of
+     * copies of the evaluator. Pass a null executor to score on the calling thread.
+     * The copies are made now, so call this again after changing the evaluator or training the network.
+     */
+    public void setParallelScoring(ExecutorService executor, int workers) {
+        this.scoringPool = executor;
+        this.replicas = null;
+        if(executor != null) {
+            replicas = new BoardEvaluator[Math.max(1, workers)];
+            for(int i = 0; i < replicas.length; i++) {
+                replicas[i] = evaluator.copy();
             }
         }
+    }
 
-        INDArray nd = Nd4j.create(f, new int[]{1,1,10,10});
+    //Scores the board from teamNum's point of view, using the cache when there is one
+    public double getCachedScore(Board b, int teamNum) {
+        long key = b.getHash() ^ (teamNum == 1 ? 0 : FLIPPED_KEY);
+        if(cache != null) {
+            double cached = cache.probe(key);
+            if(!Double.isNaN(cached)) {
+                return cached;
+            }
+        }
+        double score;
+        if(teamNum == 1) {
+            score = getScore(b.getBoard());
+        }
+        else {
+            score = getScoreFlipped(b.getBoard());
+        }
+        if(cache != null) {
+            cache.store(key, score);
+        }
+        return score;
+    }
 
-        //nd = Transforms.normalizeZeroMeanAndUnitVariance(nd);
-        //nd = Nd4j.toFlattened(nd);
-        //nd = Nd4j.vstack(nd);
+    public double getScore(Piece[][] board) {
+        BoardEncoder.encode(board, 1, single, 0);
+        evaluator.evaluate(single, 0, 1, rowScores);
+        return rowScores[0];
+    }
 
-        return nd;
+    public double getScoreFlipped(Piece[][] board) {
+        BoardEncoder.encode(board, 0, single, 0);
+        evaluator.evaluate(single, 0, 1, rowScores);
+        return rowScores[0];
     }
 
-    public static INDArray getINDArrayFlipped(Piece[][] board) {
-        float[][] b1 = new float[Board.DEFAULT_BOARD_SIZE][Board.DEFAULT_BOARD_SIZE]; //Player's immoveable pieces
-
-        for(int y = 0; y < Board.DEFAULT_BOARD_SIZE; y++) {
-            for(int x = 0; x < Board.DEFAULT_BOARD_SIZE; x++) {
-                int nx = 9-x;
-                int ny = 9-y;
-
-                if(board[nx][ny] == null) {continue;}
-                if(board[nx][ny].getTeamNumber() == 1) {
-                    char rank = board[nx][ny].getRank();
-                    if(rank == 'F') {
-                        b1[nx][ny] = 12 + 20;
-                    }
-                    else if (rank == 'B') {
-                        b1[nx][ny] = 11 + 20;
-                    }
-                    else if (rank == 'S') {
-                        b1[nx][ny] = 10 + 20;
-                    }
-                    else {
-                        b1[nx][ny] = getFloat(rank) + 20;
-                    }
-                }
-                else {
-                    char rank = board[nx][ny].getRank();
-                    if(rank == 'F') {
-                        b1[nx][ny] = 12;
-                    }
-                    else if (rank == 'B') {
-                        b1[nx][ny] = 11;
-                    }
-                    else if (rank == 'S') {
-                        b1[nx][ny] = 10;
-                    }
-                    else {
-                        b1[nx][ny] = getFloat(rank);
-                    }
-                }
-            } //End for y
-        } //End for x
-        float min = 0;
-        float max = 32;
-        float[] f = new float[(Board.DEFAULT_BOARD_SIZE * Board.DEFAULT_BOARD_SIZE) * 1];
-        int index = 0;
-        for(int x = 0; x < Board.DEFAULT_BOARD_SIZE; x++) {
-            for (int y = 0; y < Board.DEFAULT_BOARD_SIZE; y++) {
-                if((b1[x][y]) != 0)
-                    f[index] = ((b1[x][y])-min)/(max-min);
-                else
-                    f[index] = 0;
-                index++;
-            }
-        }
+    public boolean checkMove(int x1, int y1, int x2, int y2, int teamNum) {
+        return Rules.isLegalMove(board, x1, y1, x2, y2)
+                && board[x1][y1].getTeamNumber() == teamNum;
+    }
 
-        INDArray nd = Nd4j.create(f, new int[]{1,1,10,10});
+    public static boolean isWater(int x, int y) {
+        return BoardGeometry.isWater(x, y);
+    }
 
-        //nd = Transforms.normalizeZeroMeanAndUnitVariance(nd);
-        //nd = Nd4j.toFlattened(nd);
-        //nd = Nd4j.vstack(nd);
+    public static INDArray getINDArray(Piece[][] board) {
+        float[] f = new float[BoardEncoder.INPUT_SIZE];
+        BoardEncoder.encode(board, 1, f, 0);
+        return Nd4j.create(f, new int[]{1,1,10,10});
+    }
 
-        return nd;
+    //Same board with the team values swapped, scores it for team 0
+    public static INDArray getINDArrayFlipped(Piece[][] board) {
+        float[] f = new float[BoardEncoder.INPUT_SIZE];
+        BoardEncoder.encode(board, 0, f, 0);
+        return Nd4j.create(f, new int[]{1,1,10,10});
     }
 
     public static float getFloat(char rank) {
@@ -410,7 +339,73 @@ public class NeuralNetAI {
         return f;
     }
 
+    //Gives a shared network back to the registry, the AI can't score moves afterwards
+    public void release() {
+        if(handle != null) {
+            handle.release();
+            handle = null;
+            network = null;
+            evaluator = null;
+        }
+    }
+
+    public AlphaBetaSearch getSearch() {
+        return search;
+    }
+
+    //Pass null to go back to picking the best scored board one move ahead
+    public void setSearch(AlphaBetaSearch search) {
+        this.search = search;
+    }
+
+    public InformationSetSearch getInformationSetSearch() {
+        return informationSetSearch;
+    }
+
+    //Needs the revealed and moved flags, pass boards from BoardSnapshot.toPieces rather than Board.cloneBoard
+    public void setInformationSetSearch(InformationSetSearch informationSetSearch) {
+        this.informationSetSearch = informationSetSearch;
+    }
+
+    //Budget for each searched move, the search stops itself and plays the best move found so far. 0 for no budget
+    public void setMoveTimeLimit(long moveTimeLimit) {
+        this.moveTimeLimit = moveTimeLimit;
+    }
+
+    public long getMoveTimeLimit() {
+        return moveTimeLimit;
+    }
+
+    //Source for random moves, so games can be repeated. Pass null to use Math.random
+    public void setRandom(Random random) {
+        this.random = random;
+    }
+
+    public BoardEvaluator getEvaluator() {
+        return evaluator;
+    }
+
+    /**
+     * Sets what scores boards, for example a FastBoardEvaluator built from getNetwork().
+     * Clear the cache when the new evaluator scores differently.
+     */
+    public void setEvaluator(BoardEvaluator evaluator) {
+        this.evaluator = evaluator;
+        if(scoringPool != null) {
+            setParallelScoring(scoringPool, replicas.length);
+        }
+    }
+
     public MultiLayerNetwork getNetwork() {
         return this.network;
     }
+
+    public EvaluationCache getEvaluationCache() {
+        return cache;
+    }
+
+    //Pass null to turn caching off. Clear the cache if the network is trained further.
+    public void setEvaluationCache(EvaluationCache cache) {
+        this.cache = cache;
+    }
 }
@@ -0,0 +1,199 @@
+package com.game.stratego.core.ai;
+
+import com.game.stratego.core.stratego.Board;
+import com.game.stratego.core.stratego.MoveList;
+import com.game.stratego.core.stratego.ReplayBuffer;
+import com.game.stratego.core.stratego.UndoRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compares the int8 evaluator with the float ones on positions from random games.
+ * Given a replay buffer directory, the QuantizedBoardEvaluator is calibrated on
+ * recorded self play positions from it and every random position is tested.
+ * Otherwise half of the random positions calibrate it and the other half are tested.
+ * The report says how often it picks the same move as the float network,
+ * how far its scores are off, and how many boards per second each evaluator scores.
+ * Usage: QuantizationReport [model file in assets/net] [positions] [seed] [replay directory]
+ */
+public class QuantizationReport {
+    private static final int MAX_PLIES = 200;
+    private static final int TIMING_ROUNDS = 5;
+    private static final int CHUNK = 512; //Rows per evaluate call, keeps the network's batch memory small
+
+    public static void main(String[] args) throws IOException {
+        String path = (args != null && args.length > 0) ? args[0] : "NeuralNetwork19.zip";
+        int positions = (args != null && args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+        long seed = (args != null && args.length > 2) ? Long.parseLong(args[2]) : 1;
+        ReplayBuffer replay = (args != null && args.length > 3)
+                ? new ReplayBuffer(new File(args[3]), ReplayBuffer.DEFAULT_SEGMENT_CAPACITY, Integer.MAX_VALUE) : null;
+        ModelRegistry.Handle handle = ModelRegistry.getShared().acquire(path);
+        try {
+            System.out.println(run(new NetworkEvaluator(handle.getNetwork()),
+                    new FastBoardEvaluator(handle.getNetwork()), positions, new Random(seed), replay));
+        } finally {
+            handle.release();
+        }
+    }
+
+    public static String run(BoardEvaluator network, FastBoardEvaluator fast, int positions, Random rnd) {
+        return run(network, fast, positions, rnd, null);
+    }
+
+    //Calibrates on positions from replay unless it is null or empty
+    public static String run(BoardEvaluator network, FastBoardEvaluator fast, int positions, Random rnd, ReplayBuffer replay) {
+        Board[] boards = new Board[positions];
+        int[] sides = new int[positions];
+        for(int i = 0; i < positions; i++) {
+            sides[i] = rnd.nextInt(2);
+            boards[i] = randomPosition(rnd, sides[i]);
+        }
+        int calibrationCount; //Random positions used for calibration, the rest are tested
+        String calibrationSource;
+        QuantizedBoardEvaluator quantized;
+        if(replay != null && replay.size() > 0) {
+            calibrationCount = 0;
+            quantized = QuantizedBoardEvaluator.fromReplay(fast, replay, positions, rnd);
+            calibrationSource = Math.min(positions, replay.size()) + " replay";
+        }
+        else {
+            calibrationCount = positions / 2;
+            float[] calibration = new float[calibrationCount * BoardEncoder.INPUT_SIZE];
+            for(int i = 0; i < calibrationCount; i++) {
+                BoardEncoder.encode(boards[i].getBoard(), sides[i], calibration, i * BoardEncoder.INPUT_SIZE);
+            }
+            quantized = new QuantizedBoardEvaluator(fast, calibration, calibrationCount);
+            calibrationSource = calibrationCount + " random";
+        }
+
+        //Every board one move after each test position
+        MoveList moves = new MoveList();
+        float[] children = new float[64 * BoardEncoder.INPUT_SIZE];
+        int[] firstChild = new int[positions - calibrationCount + 1];
+        int childCount = 0;
+        for(int i = calibrationCount; i < positions; i++) {
+            firstChild[i - calibrationCount] = childCount;
+            boards[i].getLegalMoves(sides[i], moves);
+            for(int m = 0; m < moves.size(); m++) {
+                if((childCount + 1) * BoardEncoder.INPUT_SIZE > children.length) {
+                    float[] bigger = new float[children.length * 2];
+                    System.arraycopy(children, 0, bigger, 0, children.length);
+                    children = bigger;
+                }
+                UndoRecord u = boards[i].makeMove(moves.get(m));
+                BoardEncoder.encode(boards[i].getBoard(), sides[i], children, childCount * BoardEncoder.INPUT_SIZE);
+                boards[i].unmakeMove(u);
+                childCount++;
+            }
+        }
+        firstChild[positions - calibrationCount] = childCount;
+
+        double[] reference = new double[childCount];
+        double[] fastScores = new double[childCount];
+        double[] quantizedScores = new double[childCount];
+        evaluateAll(network, children, childCount, reference);
+        long networkNanos = time(network, children, childCount, reference);
+        long fastNanos = time(fast, children, childCount, fastScores);
+        long quantizedNanos = time(quantized, children, childCount, quantizedScores);
+
+        int tested = 0, fastAgree = 0, quantizedAgree = 0;
+        double maxError = 0, totalError = 0;
+        for(int p = 0; p < firstChild.length - 1; p++) {
+            int from = firstChild[p], to = firstChild[p + 1];
+            if(from == to) {
+                continue;
+            }
+            tested++;
+            int best = argmax(reference, from, to);
+            if(argmax(fastScores, from, to) == best) fastAgree++;
+            if(argmax(quantizedScores, from, to) == best) quantizedAgree++;
+        }
+        for(int i = 0; i < childCount; i++) {
+            double error = Math.abs(quantizedScores[i] - reference[i]);
+            maxError = Math.max(maxError, error);
+            totalError += error;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("Positions: ").append(calibrationSource).append(" calibration, ").append(tested)
+                .append(" tested, ").append(childCount).append(" boards scored\n");
+        sb.append(String.format("Float score difference from the network: max %.2e, limit %.0e%n",
+                maxDifference(reference, fastScores, childCount), FastBoardEvaluator.MAX_DIFFERENCE));
+        sb.append(String.format("Move agreement with the network: float %.2f%%, int8 %.2f%%%n",
+                percent(fastAgree, tested), percent(quantizedAgree, tested)));
+        sb.append(String.format("Int8 score error: mean %.5f, max %.5f%n",
+                (childCount == 0) ? 0 : totalError / childCount, maxError));
+        sb.append(String.format("Boards per second: network %.0f, float %.0f, int8 %.0f%n",
+                rate(childCount, networkNanos), rate(childCount, fastNanos), rate(childCount, quantizedNanos)));
+        return sb.toString();
+    }
+
+    //Random legal moves from a random setup, stopping at a random point with side to move
+    static Board randomPosition(Random rnd, int side) {
+        while(true) {
+            Board b = new Board();
+            b.createComputerSetup(rnd);
+            b.createPlayerSetup(rnd);
+            int plies = 2 * rnd.nextInt(MAX_PLIES / 2) + side;
+            MoveList moves = new MoveList();
+            int turn = 0;
+            for(int i = 0; i < plies && !b.isGameFinished(); i++) {
+                b.getLegalMoves(turn, moves);
+                if(moves.isEmpty()) {
+                    break;
+                }
+                b.makeMove(moves.get(rnd.nextInt(moves.size())));
+                turn = 1 - turn;
+            }
+            if(!b.isGameFinished() && turn == side) {
+                return b;
+            }
+        }
+    }
+
+    private static void evaluateAll(BoardEvaluator e, float[] inputs, int count, double[] out) {
+        for(int first = 0; first < count; first += CHUNK) {
+            e.evaluate(inputs, first, Math.min(CHUNK, count - first), out);
+        }
+    }
+
+    //Best of TIMING_ROUNDS runs, after one run to warm up
+    private static long time(BoardEvaluator e, float[] inputs, int count, double[] out) {
+        evaluateAll(e, inputs, count, out);
+        long best = Long.MAX_VALUE;
+        for(int i = 0; i < TIMING_ROUNDS; i++) {
+            long start = System.nanoTime();
+            evaluateAll(e, inputs, count, out);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static double maxDifference(double[] a, double[] b, int count) {
+        double max = 0;
+        for(int i = 0; i < count; i++) {
+            max = Math.max(max, Math.abs(a[i] - b[i]));
+        }
+        return max;
+    }
+
+    private static int argmax(double[] scores, int from, int to) {
+        int best = from;
+        for(int i = from + 1; i < to; i++) {
+            if(scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static double percent(int part, int whole) {
+        return (whole == 0) ? 0 : 100.0 * part / whole;
+    }
+
+    private static double rate(int count, long nanos) {
+        return (nanos == 0) ? 0 : count * 1e9 / nanos;
+    }
+}
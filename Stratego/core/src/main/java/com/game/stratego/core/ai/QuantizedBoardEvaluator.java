@@ -0,0 +1,192 @@
+package com.game.stratego.core.ai;
+
+import com.game.stratego.core.stratego.ReplayBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+
+import java.util.Random;
+
+/**
+ * 8 bit version of FastBoardEvaluator.
+ * Inputs are stored exactly as whole 32nds. Conv and dense weights are int8
+ * with one scale per filter or unit, and the conv activations are int8 with a
+ * scale taken from the largest activation seen on the calibration boards.
+ * Sums are done in ints. The 40x2 output layer stays float because it is too
+ * small to matter. Copies share the weights, one copy per thread.
+ * This is a size trade-off, not a speed-up: the weights take a quarter of the
+ * memory, but the JVM doesn't vectorize the byte math, so it scores slower
+ * than FastBoardEvaluator. QuantizationReport on NeuralNetwork19.zip (400
+ * positions, seed 1, one core) measured 29k boards per second against 36k for
+ * float, about a fifth slower, and picked the network's best move 97% of the
+ * time against 100% for float.
+ * Nothing uses it by default; set it with NeuralNetAI.setEvaluator.
+ */
+public class QuantizedBoardEvaluator implements BoardEvaluator {
+    private static final int INPUT_STEPS = 32; //Encoded inputs are whole multiples of 1/32
+    private static final int MAX = 127;
+
+    private static final int SIZE = FastBoardEvaluator.SIZE;
+    private static final int CONV_SIZE = FastBoardEvaluator.CONV_SIZE;
+    private static final int FILTERS = FastBoardEvaluator.FILTERS;
+    private static final int HIDDEN = FastBoardEvaluator.HIDDEN;
+    private static final int CONV_OUTPUTS = FastBoardEvaluator.CONV_OUTPUTS;
+
+    //Weights, never changed after construction
+    private final byte[] convWeights; //[filter][kernel row][kernel column]
+    private final float[] convMultipliers; //Conv sum to activation steps, per filter
+    private final float[] convBias; //In activation steps
+    private final float activationScale;
+    private final byte[] denseWeights; //[conv output][hidden]
+    private final float[] denseMultipliers; //Dense sum to float, per unit
+    private final float[] denseBias;
+    private final float[] outputWeights;
+    private final float[] outputBias;
+
+    //Scratch
+    private final byte[] input = new byte[BoardEncoder.INPUT_SIZE];
+    private final byte[] conv = new byte[CONV_OUTPUTS];
+    private final int[] sums = new int[HIDDEN];
+
+    /**
+     * Quantizes the source's weights, using count encoded boards from calibration
+     * to pick the activation scale. Boards like the ones that will be scored work best.
+     */
+    public QuantizedBoardEvaluator(FastBoardEvaluator source, float[] calibration, int count) {
+        float[] activations = new float[CONV_OUTPUTS];
+        float largest = 0;
+        for(int i = 0; i < count; i++) {
+            source.convolve(calibration, i * BoardEncoder.INPUT_SIZE, activations);
+            for(int j = 0; j < CONV_OUTPUTS; j++) {
+                largest = Math.max(largest, activations[j]);
+            }
+        }
+        activationScale = (largest > 0) ? largest / MAX : 1;
+
+        float[] w0 = source.getConvWeights();
+        int k = w0.length / FILTERS;
+        convWeights = new byte[w0.length];
+        convMultipliers = new float[FILTERS];
+        convBias = new float[FILTERS];
+        for(int f = 0; f < FILTERS; f++) {
+            float scale = quantize(w0, f * k, 1, k, convWeights);
+            convMultipliers[f] = scale / INPUT_STEPS / activationScale;
+            convBias[f] = source.getConvBias()[f] / activationScale;
+        }
+
+        float[] w1 = source.getDenseWeights();
+        denseWeights = new byte[w1.length];
+        denseMultipliers = new float[HIDDEN];
+        for(int j = 0; j < HIDDEN; j++) {
+            float scale = quantize(w1, j, HIDDEN, CONV_OUTPUTS, denseWeights);
+            denseMultipliers[j] = scale * activationScale;
+        }
+        denseBias = source.getDenseBias();
+        outputWeights = source.getOutputWeights();
+        outputBias = source.getOutputBias();
+    }
+
+    /**
+     * Calibrates on up to count different positions from a replay buffer, which
+     * are recorded self play positions, so they match what will be scored better
+     * than random games do. Throws if the buffer is empty.
+     */
+    public static QuantizedBoardEvaluator fromReplay(FastBoardEvaluator source, ReplayBuffer buffer, int count, Random rnd) {
+        DataSet sample = buffer.sampleReservoir(count, rnd);
+        if(sample == null) {
+            throw new IllegalArgumentException("No positions to calibrate on in " + buffer.getDirectory());
+        }
+        INDArray features = sample.getFeatures();
+        float[] calibration = new float[features.length()];
+        for(int i = 0; i < calibration.length; i++) {
+            calibration[i] = features.getFloat(i); //Linear index, c order
+        }
+        return new QuantizedBoardEvaluator(source, calibration, sample.numExamples());
+    }
+
+    private QuantizedBoardEvaluator(QuantizedBoardEvaluator other) {
+        convWeights = other.convWeights;
+        convMultipliers = other.convMultipliers;
+        convBias = other.convBias;
+        activationScale = other.activationScale;
+        denseWeights = other.denseWeights;
+        denseMultipliers = other.denseMultipliers;
+        denseBias = other.denseBias;
+        outputWeights = other.outputWeights;
+        outputBias = other.outputBias;
+    }
+
+    //Quantizes count values from start, stride apart, with one symmetric scale and returns the scale
+    private static float quantize(float[] from, int start, int stride, int count, byte[] to) {
+        float largest = 0;
+        for(int i = 0, at = start; i < count; i++, at += stride) {
+            largest = Math.max(largest, Math.abs(from[at]));
+        }
+        float scale = (largest > 0) ? largest / MAX : 1;
+        for(int i = 0, at = start; i < count; i++, at += stride) {
+            to[at] = (byte) Math.round(from[at] / scale);
+        }
+        return scale;
+    }
+
+    @Override
+    public void evaluate(float[] inputs, int firstRow, int count, double[] out) {
+        for(int row = firstRow; row < firstRow + count; row++) {
+            out[row] = score(inputs, row * BoardEncoder.INPUT_SIZE);
+        }
+    }
+
+    //Score of one encoded board starting at offset
+    public double score(float[] in, int offset) {
+        for(int sq = 0; sq < BoardEncoder.INPUT_SIZE; sq++) {
+            input[sq] = (byte) Math.round(in[offset + sq] * INPUT_STEPS);
+        }
+        for(int f = 0; f < FILTERS; f++) {
+            int w00 = convWeights[f * 4], w01 = convWeights[f * 4 + 1];
+            int w10 = convWeights[f * 4 + 2], w11 = convWeights[f * 4 + 3];
+            float m = convMultipliers[f];
+            float b = convBias[f];
+            int o = f * CONV_SIZE * CONV_SIZE;
+            for(int x = 0; x < CONV_SIZE; x++) {
+                int row = x * SIZE;
+                for(int y = 0; y < CONV_SIZE; y++) {
+                    int sum = w00 * input[row + y] + w01 * input[row + y + 1]
+                            + w10 * input[row + SIZE + y] + w11 * input[row + SIZE + y + 1];
+                    int q = Math.round(sum * m + b);
+                    conv[o++] = (byte) ((q < 0) ? 0 : (q > MAX) ? MAX : q);
+                }
+            }
+        }
+        for(int j = 0; j < HIDDEN; j++) {
+            sums[j] = 0;
+        }
+        for(int i = 0; i < CONV_OUTPUTS; i++) {
+            int v = conv[i];
+            if(v == 0) {
+                continue;
+            }
+            int w = i * HIDDEN;
+            for(int j = 0; j < HIDDEN; j++) {
+                sums[j] += v * denseWeights[w + j];
+            }
+        }
+        float z0 = outputBias[0];
+        float z1 = outputBias[1];
+        for(int j = 0; j < HIDDEN; j++) {
+            float h = sums[j] * denseMultipliers[j] + denseBias[j];
+            if(h > 0) {
+                z0 += h * outputWeights[j * 2];
+                z1 += h * outputWeights[j * 2 + 1];
+            }
+        }
+        return 1.0 / (1.0 + Math.exp(z1 - z0));
+    }
+
+    public float getActivationScale() {
+        return activationScale;
+    }
+
+    @Override
+    public BoardEvaluator copy() {
+        return new QuantizedBoardEvaluator(this);
+    }
+}
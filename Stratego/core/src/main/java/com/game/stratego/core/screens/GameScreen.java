@@ -11,11 +11,12 @@ import com.badlogic.gdx.graphics.g2d.BitmapFont;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer.ShapeType;
+import com.badlogic.gdx.math.GridPoint2;
 import com.game.stratego.core.Stratego;
 import com.game.stratego.core.stratego.Board;
+import com.game.stratego.core.stratego.BoardSnapshot;
 import com.game.stratego.core.stratego.Match;
 import com.game.stratego.core.stratego.TrayPiece;
-import java.awt.*;
 
 public class GameScreen implements Screen, InputProcessor {
 	Stratego game;
@@ -53,7 +54,7 @@ public class GameScreen implements Screen, InputProcessor {
 	Texture redS = new Texture("piece/RedPieceFrontS.png");
 
 	private Match match;
-	private Point selected;
+	private GridPoint2 selected;
 	private String message;
 	private boolean helpMenu;
 	
@@ -242,25 +243,26 @@ public class GameScreen implements Screen, InputProcessor {
 	}
 
 	public void drawBoardTextures() {
+		BoardSnapshot snapshot = match.getGameBoard().getSnapshot();
 		for(int x = 0; x < Board.DEFAULT_BOARD_SIZE; x++) {
 			for(int y = 0; y < Board.DEFAULT_BOARD_SIZE; y++) {
-				if(match.getBoard()[x][y] != null) {
+				if(!snapshot.isEmpty(x, y)) {
 					Texture current;
-					if(match.getBoard()[x][y].getTeamNumber() == 0) {
-						current = getPieceTexture(match.getBoard()[x][y].getRank(), 0);
+					if(snapshot.getTeamNumber(x, y) == 0) {
+						current = getPieceTexture(snapshot.getRank(x, y), 0);
 						batch.draw(current,((Gdx.graphics.getWidth()/2)-250)+(x+1)+(49*x),((Gdx.graphics.getHeight()/2)-200)+(y+1)+(49*(y-1)),50,50);
-						//font.draw(batch, Character.toString(match.getBoard()[x][y].getRank()), ((Gdx.graphics.getWidth()/2)-250)+(x+1)+(49*x)+20, ((Gdx.graphics.getHeight()/2)-200)+(y+1)+(49*(y-1))+30);
+						//font.draw(batch, Character.toString(snapshot.getRank(x, y)), ((Gdx.graphics.getWidth()/2)-250)+(x+1)+(49*x)+20, ((Gdx.graphics.getHeight()/2)-200)+(y+1)+(49*(y-1))+30);
 					}
-					else if(match.getBoard()[x][y].getTeamNumber() == 1) {
-						if(match.getBoard()[x][y].isRevealed()) {
-							current = getPieceTexture(match.getBoard()[x][y].getRank(), 1);
+					else if(snapshot.getTeamNumber(x, y) == 1) {
+						if(snapshot.isRevealed(x, y)) {
+							current = getPieceTexture(snapshot.getRank(x, y), 1);
 						}else current = getPieceTexture(' ', 1);
 						batch.draw(current,((Gdx.graphics.getWidth()/2)-250)+(x+1)+(49*x),((Gdx.graphics.getHeight()/2)-200)+(y+1)+(49*(y-1)),50,50);
 
-						/*if(match.getBoard()[x][y].isRevealed()
-								|| !match.getBoard()[x][y].isRevealed()) {
+						/*if(snapshot.isRevealed(x, y)
+								|| !snapshot.isRevealed(x, y)) {
 							font.setColor(Color.WHITE);
-							font.draw(batch, Character.toString(match.getBoard()[x][y].getRank()), ((Gdx.graphics.getWidth()/2)-250)+(x+1)+(49*x)+20, ((Gdx.graphics.getHeight()/2)-200)+(y+1)+(49*(y-1))+30);
+							font.draw(batch, Character.toString(snapshot.getRank(x, y)), ((Gdx.graphics.getWidth()/2)-250)+(x+1)+(49*x)+20, ((Gdx.graphics.getHeight()/2)-200)+(y+1)+(49*(y-1))+30);
 						}*/
 					}
 				}
@@ -324,7 +326,9 @@ public class GameScreen implements Screen, InputProcessor {
 	@Override
 	public void hide() {}
 	@Override
-	public void dispose() {}
+	public void dispose() {
+		match.dispose();
+	}
 	@Override
 	public boolean keyDown(int keycode) {return false;}
 	@Override
@@ -346,6 +350,7 @@ public class GameScreen implements Screen, InputProcessor {
 			//Menu Button
 			if(screenX > 0 && screenX < 40
 					&& screenY > 0 && screenY < 25) {
+				match.dispose();
 				game.setScreen(new MainMenu(game));
 				return true;
 			}
@@ -357,6 +362,10 @@ public class GameScreen implements Screen, InputProcessor {
 				int row = inBoardX / 50;
 				int col = inBoardY / 50;
 				if(match.getState().equals("play")) {
+					if (match.isThinking()) { //Board can't change while the computer works out its move
+						selected = null;
+						return false;
+					}
 					if (selected == null) {
 						if (Board.isWater(row, col)
 								|| match.getBoard()[row][col] == null
@@ -364,7 +373,7 @@ public class GameScreen implements Screen, InputProcessor {
 							selected = null;
 							return false;
 						} else {
-							selected = new Point(row, col);
+							selected = new GridPoint2(row, col);
 							return true;
 						}
 
@@ -389,8 +398,8 @@ public class GameScreen implements Screen, InputProcessor {
 						if(match.getGameBoard().getPlayerTray()[i].getRemaining() > 0) {
 							if(match.getBoard()[row][col] == null
 									&& col < (Board.DEFAULT_BOARD_SIZE/2)-1) {
-								match.getBoard()[row][col] = match.getGameBoard().getPlayerTray()[i].takePiece(0);
-								if(match.getGameBoard().isTrayEmpty(match.getGameBoard().getPlayerTray())) {
+								match.getGameBoard().placePiece(row, col, match.getGameBoard().getPlayerTray()[i].takePiece(0));
+								if(match.getGameBoard().isTrayEmpty(0)) {
 									selected = null;
 								}
 							}
@@ -405,7 +414,7 @@ public class GameScreen implements Screen, InputProcessor {
 				int row = inBoardX / 80;
 				int col = inBoardY / 80;
 				if(match.getState().equals("make")) {
-					selected = new Point(row,col);
+					selected = new GridPoint2(row,col);
 				}
 			}
 		}
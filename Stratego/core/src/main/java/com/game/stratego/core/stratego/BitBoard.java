@@ -0,0 +1,127 @@
+package com.game.stratego.core.stratego;
+
+import java.util.Arrays;
+
+/**
+ * Mask copy of a Board's pieces, kept up to date by Board. Each square is a bit
+ * (square = x * 10 + y) of a 128 bit mask stored as two longs, with one mask per
+ * team and rank and one per team. MoveGenerator reads these instead of the Piece
+ * array: a team's movable pieces, its scouts and the first piece on a scout's
+ * ray each come from a few ands and a bit scan.
+ * Only where the pieces are, revealed and moved flags stay on the Pieces.
+ */
+public class BitBoard {
+	public static final int WORDS = 2; //Longs per mask
+
+	private static final int RANKS = Board.NUMBER_OF_PIECES;
+	private static final long[] WATER = new long[WORDS];
+	private static final long[] RAYS = new long[4 * BoardGeometry.SQUARES * WORDS]; //[direction][square][word], the squares of BoardGeometry.ray
+
+	static {
+		for(int sq = 0; sq < BoardGeometry.SQUARES; sq++) {
+			if(BoardGeometry.isWater(sq)) {
+				set(WATER, 0, sq);
+			}
+			for(int dir = BoardGeometry.LEFT; dir <= BoardGeometry.RIGHT; dir++) {
+				int[] ray = BoardGeometry.ray(dir, sq);
+				for(int i = 0; i < ray.length; i++) {
+					set(RAYS, (dir * BoardGeometry.SQUARES + sq) * WORDS, ray[i]);
+				}
+			}
+		}
+	}
+
+	private final long[] ranks = new long[2 * RANKS * WORDS]; //[team][rank][word]
+	private final long[] teams = new long[2 * WORDS]; //[team][word]
+	private final byte[] squares = new byte[BoardGeometry.SQUARES]; //team * RANKS + rank + 1, 0 when empty
+
+	public BitBoard() {
+	}
+
+	public BitBoard(Piece[][] board) {
+		setPieces(board);
+	}
+
+	public void setPieces(Piece[][] board) {
+		Arrays.fill(ranks, 0);
+		Arrays.fill(teams, 0);
+		Arrays.fill(squares, (byte) 0);
+		for(int sq = 0; sq < BoardGeometry.SQUARES; sq++) {
+			Piece p = board[BoardGeometry.x(sq)][BoardGeometry.y(sq)];
+			if(p != null) {
+				put(sq, p.getTeamNumber(), p.getRankIndex());
+			}
+		}
+	}
+
+	//Copies one square from the array, call for every square a change touched
+	public void update(Piece[][] board, int sq) {
+		int code = squares[sq];
+		if(code != 0) {
+			int team = (code - 1) / RANKS;
+			clear(ranks, (team * RANKS + (code - 1) % RANKS) * WORDS, sq);
+			clear(teams, team * WORDS, sq);
+			squares[sq] = 0;
+		}
+		Piece p = board[BoardGeometry.x(sq)][BoardGeometry.y(sq)];
+		if(p != null) {
+			put(sq, p.getTeamNumber(), p.getRankIndex());
+		}
+	}
+
+	private void put(int sq, int team, int rank) {
+		set(ranks, (team * RANKS + rank) * WORDS, sq);
+		set(teams, team * WORDS, sq);
+		squares[sq] = (byte) (team * RANKS + rank + 1);
+	}
+
+	private static void set(long[] masks, int at, int sq) {
+		masks[at + (sq >>> 6)] |= 1L << (sq & 63);
+	}
+
+	private static void clear(long[] masks, int at, int sq) {
+		masks[at + (sq >>> 6)] &= ~(1L << (sq & 63));
+	}
+
+	//Team on the square, or -1 if it is empty
+	public int teamAt(int sq) {
+		return (squares[sq] == 0) ? -1 : (squares[sq] - 1) / RANKS;
+	}
+
+	//Rank index on the square, or -1 if it is empty
+	public int rankAt(int sq) {
+		return (squares[sq] == 0) ? -1 : (squares[sq] - 1) % RANKS;
+	}
+
+	//One word of the team's pieces that can move: not bombs, flags or anything on water
+	public long movable(int team, int word) {
+		return teams[team * WORDS + word]
+				& ~ranks[(team * RANKS + Rules.BOMB) * WORDS + word]
+				& ~ranks[(team * RANKS + Rules.FLAG) * WORDS + word]
+				& ~WATER[word];
+	}
+
+	public long pieces(int team, int rank, int word) {
+		return ranks[(team * RANKS + rank) * WORDS + word];
+	}
+
+	public long occupied(int word) {
+		return teams[word] | teams[WORDS + word];
+	}
+
+	//First occupied square on BoardGeometry.ray(direction, from), or -1 if the ray is clear
+	public int firstBlocker(int direction, int from) {
+		int at = (direction * BoardGeometry.SQUARES + from) * WORDS;
+		long low = RAYS[at] & occupied(0);
+		long high = RAYS[at + 1] & occupied(1);
+		if(direction == BoardGeometry.UP || direction == BoardGeometry.RIGHT) { //Squares go up along the ray
+			if(low != 0) return Long.numberOfTrailingZeros(low);
+			if(high != 0) return 64 + Long.numberOfTrailingZeros(high);
+		}
+		else {
+			if(high != 0) return 127 - Long.numberOfLeadingZeros(high);
+			if(low != 0) return 63 - Long.numberOfLeadingZeros(low);
+		}
+		return -1;
+	}
+}
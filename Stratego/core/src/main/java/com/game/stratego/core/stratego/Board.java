@@ -1,47 +1,36 @@
 package com.game.stratego.core.stratego;
 
+import java.util.ArrayList;
+import java.util.Random;
+
 public class Board {
 	private Piece[][] board;
-	private TrayPiece[] playerTray;
-	private TrayPiece[] computerTray;
+	private final BitBoard bits = new BitBoard(); //Masks of board, moves are generated from these
+	private Tray playerTray;
+	private Tray computerTray;
 	private boolean gameFinished;
 	private int winner;
+	private long hash;
+	private int sideToMove; //Team whose turn it is, assumes turns alternate
+	private UndoRecord[] undoStack;
+	private int undoSize;
+	private volatile BoardSnapshot snapshot; //Last published position, safe to read from other threads
 	
 	public static final int DEFAULT_BOARD_SIZE = 10;
 	public static final int NUMBER_OF_PIECES = 12;
 	
 	public Board() {
 		board = new Piece[DEFAULT_BOARD_SIZE][DEFAULT_BOARD_SIZE];
-		playerTray = new TrayPiece[NUMBER_OF_PIECES];
-		playerTray[0] = new TrayPiece('1', 1); //1 Marshal
-		playerTray[1] = new TrayPiece('2', 1); //1 General
-		playerTray[2] = new TrayPiece('3', 2); //2 Colonels
-		playerTray[3] = new TrayPiece('4', 3); //3 Majors
-		playerTray[4] = new TrayPiece('5', 4); //4 Captains
-		playerTray[5] = new TrayPiece('6', 4); //4 Lieutenants
-		playerTray[6] = new TrayPiece('7', 4); //4 Sergeants
-		playerTray[7] = new TrayPiece('8', 5); //5 Miners
-		playerTray[8] = new TrayPiece('9', 8); //8 Scouts
-		playerTray[9] = new TrayPiece('S', 1); //1 Spy
-		playerTray[10] = new TrayPiece('B', 6); //6 Bombs
-		playerTray[11] = new TrayPiece('F', 1); //1 Flag
-
-		computerTray = new TrayPiece[NUMBER_OF_PIECES];
-		computerTray[0] = new TrayPiece('1', 1); //1 Marshal
-		computerTray[1] = new TrayPiece('2', 1); //1 General
-		computerTray[2] = new TrayPiece('3', 2); //2 Colonels
-		computerTray[3] = new TrayPiece('4', 3); //3 Majors
-		computerTray[4] = new TrayPiece('5', 4); //4 Captains
-		computerTray[5] = new TrayPiece('6', 4); //4 Lieutenants
-		computerTray[6] = new TrayPiece('7', 4); //4 Sergeants
-		computerTray[7] = new TrayPiece('8', 5); //5 Miners
-		computerTray[8] = new TrayPiece('9', 8); //8 Scouts
-		computerTray[9] = new TrayPiece('S', 1); //1 Spy
-		computerTray[10] = new TrayPiece('B', 6); //6 Bombs
-		computerTray[11] = new TrayPiece('F', 1); //1 Flag
+		playerTray = new Tray();
+		computerTray = new Tray();
 
 		gameFinished = false;
 		winner = -1;
+		undoStack = new UndoRecord[16];
+		undoSize = 0;
+		sideToMove = 0;
+		hash = Zobrist.hash(board, sideToMove);
+		publish();
 	}
 
 	public static Piece[][] cloneBoard(Piece[][] b) {
@@ -57,217 +46,222 @@ public class Board {
 	}
 	
 	public boolean movePiece(int x1, int y1, int x2, int y2) {
-		if(x1 >= DEFAULT_BOARD_SIZE || y1 >= DEFAULT_BOARD_SIZE
-				|| x2 >= DEFAULT_BOARD_SIZE || y2 >= DEFAULT_BOARD_SIZE){ //move is off the board
+		if(!applyMove(x1, y1, x2, y2)) {
 			return false;
 		}
-		else if(   isWater(x1,y1) || isWater(x2,y2)) {
+		snapshot = snapshot.withMove(this, x1, y1, x2, y2);
+		return true;
+	}
+
+	//Moves without publishing a snapshot, search moves made with makeMove stay invisible to readers
+	private boolean applyMove(int x1, int y1, int x2, int y2) {
+		//Only the two squares of the move can change, so the hash is updated from those alone
+		long before = squareKey(x1, y1) ^ squareKey(x2, y2);
+		int mover = (inBounds(x1, y1) && board[x1][y1] != null) ? board[x1][y1].getTeamNumber() : sideToMove;
+		if(!resolveMove(x1, y1, x2, y2)) {
 			return false;
 		}
-		else if(board[x1][y1] == null
-				|| board[x1][y1].getRank() == 'B'
-				|| board[x1][y1].getRank() == 'F') { //Illegal moves
+		hash ^= before ^ squareKey(x1, y1) ^ squareKey(x2, y2);
+		bits.update(board, BoardGeometry.square(x1, y1));
+		bits.update(board, BoardGeometry.square(x2, y2));
+		hash ^= Zobrist.sideKey(sideToMove) ^ Zobrist.sideKey(1 - mover);
+		sideToMove = 1 - mover;
+		return true;
+	}
+
+	private boolean resolveMove(int x1, int y1, int x2, int y2) {
+		if(!Rules.isLegalMove(board, x1, y1, x2, y2)) {
 			return false;
 		}
-		else if(   (board[x1][y1].getRank() != '9') &&
-				   ((Math.abs(x1-x2) > 1 || Math.abs(y1-y2) > 1) //Move must be 1 space away (non-scout)
-				|| (Math.abs(x1-x2) == 1 && Math.abs(y1-y2) == 1))) { //No diagonals
-			return false;
+		Piece attacker = board[x1][y1];
+		Piece defender = board[x2][y2];
+		board[x1][y1] = null;
+		if(defender == null) { //if the spot is empty
+			board[x2][y2] = attacker;
+			attacker.setHasMoved(true);
+			return true;
 		}
-		else if(   (board[x1][y1].getRank() == '9') &&
-				   ((Math.abs(x1-x2) >= 1 && Math.abs(y1-y2) >= 1)
-				|| (Math.abs(x1-x2) == 1 && Math.abs(y1-y2) == 1))) { //No diagonals
-			return false;
+		int outcome = Rules.combat(attacker.getRankIndex(), defender.getRankIndex());
+		switch(outcome & Rules.RESULT_MASK) {
+			case Rules.ATTACKER_WINS:
+				getTray(defender.getTeamNumber()).returnPiece(defender.getRankIndex());
+				board[x2][y2] = attacker;
+				attacker.setIsRevealed(true);
+				attacker.setHasMoved(true);
+				break;
+			case Rules.DEFENDER_WINS:
+				getTray(attacker.getTeamNumber()).returnPiece(attacker.getRankIndex());
+				if((outcome & Rules.REVEAL_DEFENDER) != 0) {
+					defender.setIsRevealed(true);
+				}
+				break;
+			default: //Both pieces lose
+				getTray(attacker.getTeamNumber()).returnPiece(attacker.getRankIndex());
+				getTray(defender.getTeamNumber()).returnPiece(defender.getRankIndex());
+				board[x2][y2] = null;
 		}
-		else if(   (board[x1][y1].getRank() == '9') &&
-					someoneInTheWay(x1, y1, x2, y2)) {
-			return false;
+		if((outcome & Rules.FLAG_CAPTURED) != 0) { //Flag found
+			gameFinished = true;
+			winner = attacker.getTeamNumber();
 		}
-		else if(board[x2][y2] == null) { //if the spot is empty
-			board[x2][y2] = board[x1][y1];
-			board[x2][y2].setHasMoved(true);
-			board[x1][y1] = null;
-			return true;
+		return true;
+	}
+
+	public UndoRecord makeMove(Move m) {
+		return makeMove(m.getPacked());
+	}
+
+	public UndoRecord makeMove(int move) {
+		return makeMove(Move.sourceX(move), Move.sourceY(move), Move.destinationX(move), Move.destinationY(move));
+	}
+
+	//Same as movePiece, but returns a record that unmakeMove can use to restore the board, or null if the move is illegal
+	public UndoRecord makeMove(int x1, int y1, int x2, int y2) {
+		if(x1 < 0 || y1 < 0 || x2 < 0 || y2 < 0
+				|| x1 >= DEFAULT_BOARD_SIZE || y1 >= DEFAULT_BOARD_SIZE
+				|| x2 >= DEFAULT_BOARD_SIZE || y2 >= DEFAULT_BOARD_SIZE
+				|| board[x1][y1] == null) {
+			return null;
 		}
-		else if(board[x1][y1].getTeamNumber() == board[x2][y2].getTeamNumber()) { //if they're on the same team
-			return false;
+		if(undoSize == undoStack.length) {
+			UndoRecord[] bigger = new UndoRecord[undoStack.length * 2];
+			System.arraycopy(undoStack, 0, bigger, 0, undoSize);
+			undoStack = bigger;
 		}
-		else {
-			if(board[x2][y2].getRank() == 'F') { //Flag found
-				returnToTray(board[x2][y2].getRank(), board[x2][y2].getTeamNumber());
-				board[x2][y2] = board[x1][y1];
-				board[x2][y2].setIsRevealed(true);
-				board[x2][y2].setHasMoved(true);
-				board[x1][y1] = null;
-				gameFinished = true;
-				winner = board[x2][y2].getTeamNumber();
-				return true;
-			}
-			else if(board[x2][y2].getRank() == 'B') { //Bomb found
-				if(board[x1][y1].getRank() == '8') { //Bomb defused by miner
-					returnToTray(board[x2][y2].getRank(), board[x2][y2].getTeamNumber());
-					board[x2][y2] = board[x1][y1];
-					board[x2][y2].setIsRevealed(true);
-					board[x2][y2].setHasMoved(true);
-					board[x1][y1] = null;
-					return true;
-				}
-				else {
-					board[x2][y2].setIsRevealed(true);
-					returnToTray(board[x1][y1].getRank(), board[x1][y1].getTeamNumber());
-					board[x1][y1] = null; //Piece defeated by bomb
-					return true;
-				}
-			}
-			else if(board[x1][y1].getRank() == 'S') { //Spy is attacking
-				if(board[x2][y2].getRank() == '1') { //if the spy is attacking a marshal
-					returnToTray(board[x2][y2].getRank(), board[x2][y2].getTeamNumber());
-					board[x2][y2] = board[x1][y1];
-					board[x2][y2].setIsRevealed(true);
-					board[x2][y2].setHasMoved(true);
-					board[x1][y1] = null;
-					return true;
-				}
-				else if(board[x2][y2].getRank() == 'S') { //if the spy is attacking another spy
-					returnToTray(board[x1][y1].getRank(), board[x1][y1].getTeamNumber());
-					returnToTray(board[x2][y2].getRank(), board[x2][y2].getTeamNumber());
-					board[x1][y1] = null;
-					board[x2][y2] = null;
-					return true;
-				}
-				else {
-					returnToTray(board[x1][y1].getRank(), board[x1][y1].getTeamNumber());
-					board[x1][y1] = null; //Piece defeated
-					return true;
-				}
-			}
-			else {
-				int rank1 = Character.getNumericValue(board[x1][y1].getRank());
-				int rank2 = Character.getNumericValue(board[x2][y2].getRank());
-				if(rank1 < rank2) { //Better piece lives
-					returnToTray(board[x2][y2].getRank(), board[x2][y2].getTeamNumber());
-					board[x2][y2] = board[x1][y1];
-					board[x2][y2].setIsRevealed(true);
-					board[x2][y2].setHasMoved(true);
-					board[x1][y1] = null;
-					return true;
-				}
-				else if(rank1 == rank2) {
-					returnToTray(board[x1][y1].getRank(), board[x1][y1].getTeamNumber());
-					returnToTray(board[x2][y2].getRank(), board[x2][y2].getTeamNumber());
-					board[x1][y1] = null;
-					board[x2][y2] = null;
-					return true;
-				}
-				else {
-					returnToTray(board[x1][y1].getRank(), board[x1][y1].getTeamNumber());
-					board[x1][y1] = null; //Piece defeated
-					board[x2][y2].setIsRevealed(true);
-					return true;
-				}
-			}
-			
+		if(undoStack[undoSize] == null) {
+			undoStack[undoSize] = new UndoRecord();
+		}
+		UndoRecord u = undoStack[undoSize];
+		u.x1 = x1;
+		u.y1 = y1;
+		u.x2 = x2;
+		u.y2 = y2;
+		u.attacker = board[x1][y1];
+		u.defender = board[x2][y2];
+		u.attackerRevealed = u.attacker.isRevealed();
+		u.attackerMoved = u.attacker.hasMoved();
+		u.defenderRevealed = u.defender != null && u.defender.isRevealed();
+		u.gameFinished = gameFinished;
+		u.winner = winner;
+		u.hash = hash;
+		u.sideToMove = sideToMove;
+		if(!applyMove(x1, y1, x2, y2)) {
+			u.attacker = null;
+			u.defender = null;
+			return null;
 		}
+		u.attackerCaptured = board[x2][y2] != u.attacker;
+		u.defenderCaptured = u.defender != null && board[x2][y2] != u.defender;
+		undoSize++;
+		return u;
 	}
 
-	public static boolean isWater(int x, int y) {
-		if(  	   (x == 2 && y == 4) //Check if the point is in the water
-				|| (x == 2 && y == 5)
-				|| (x == 3 && y == 4)
-				|| (x == 3 && y == 5)
-				|| (x == 6 && y == 4)
-				|| (x == 6 && y == 5)
-				|| (x == 7 && y == 4)
-				|| (x == 7 && y == 5)) {
-			return true;
+	//Moves must be unmade in the reverse order they were made
+	public void unmakeMove(UndoRecord u) {
+		if(undoSize == 0 || undoStack[undoSize-1] != u) {
+			throw new IllegalStateException("Can only unmake the last move made.");
 		}
-		return false;
-	}
-	
-	private boolean someoneInTheWay(int x1, int y1, int x2, int y2) {
-
-		if(Math.abs(x1-x2) == 0) { //Is vertical move
-			if(y1 > y2) {
-				for(int y = y2+1; y < y1; y++) {
-					if(board[x1][y] != null
-							|| isWater(x1,y)) {
-						return true;
-					}
-				}
-			}
-			else {
-				for(int y = y1+1; y < y2; y++) {
-					if(board[x1][y] != null
-							|| isWater(x1,y)) {
-						return true;
-					}
-				}
-			}
+		undoSize--;
+		board[u.x1][u.y1] = u.attacker;
+		board[u.x2][u.y2] = u.defender;
+		bits.update(board, BoardGeometry.square(u.x1, u.y1));
+		bits.update(board, BoardGeometry.square(u.x2, u.y2));
+		u.attacker.setIsRevealed(u.attackerRevealed);
+		u.attacker.setHasMoved(u.attackerMoved);
+		if(u.attackerCaptured) {
+			getTray(u.attacker.getTeamNumber()).removePiece(u.attacker.getRankIndex());
 		}
-		else { //Is horizontal move
-			if(x1 > x2) {
-				for(int x = x2+1; x < x1; x++) {
-					if(board[x][y1] != null
-							|| isWater(x,y1)) {
-						return true;
-					}
-				}
-			}
-			else {
-				for(int x = x1+1; x < x2; x++) {
-					if(board[x][y1] != null
-							|| isWater(x,y1)) {
-						return true;
-					}
-				}
+		if(u.defender != null) {
+			u.defender.setIsRevealed(u.defenderRevealed);
+			if(u.defenderCaptured) {
+				getTray(u.defender.getTeamNumber()).removePiece(u.defender.getRankIndex());
 			}
 		}
-		return false;
+		gameFinished = u.gameFinished;
+		winner = u.winner;
+		hash = u.hash;
+		sideToMove = u.sideToMove;
+		u.attacker = null;
+		u.defender = null;
+	}
+
+	public ArrayList<Move> getLegalMoves(int teamNumber) {
+		return MoveGenerator.generateMoves(bits, teamNumber);
+	}
+
+	public void getLegalMoves(int teamNumber, MoveList moves) {
+		MoveGenerator.generateMoves(bits, teamNumber, moves);
+	}
+
+	private static boolean inBounds(int x, int y) {
+		return x >= 0 && y >= 0 && x < DEFAULT_BOARD_SIZE && y < DEFAULT_BOARD_SIZE;
+	}
+
+	private long squareKey(int x, int y) {
+		return inBounds(x, y) ? Zobrist.pieceKey(board[x][y], x, y) : 0;
+	}
+
+	//Places a piece (or null) on a square and keeps the hash up to date
+	public void placePiece(int x, int y, Piece p) {
+		hash ^= squareKey(x, y);
+		board[x][y] = p;
+		hash ^= squareKey(x, y);
+		publish();
+	}
+
+	public static boolean isWater(int x, int y) {
+		return BoardGeometry.isWater(x, y);
 	}
 
 	public void returnToTray(char rank, int teamNumber) {
-		//System.out.println("Rank: " + rank + ", TeamNumber: " + teamNumber);
-		for(int x = 0; x < NUMBER_OF_PIECES; x++) {
-			if(teamNumber == 0) {
-				if(playerTray[x].getRank() == rank) {
-					playerTray[x].returnPiece();
-				}
-			}
-			else {
-				if(computerTray[x].getRank() == rank) {
-					computerTray[x].returnPiece();
-				}
-			}
-		}
+		getTray(teamNumber).returnPiece(Piece.rankIndex(rank));
+	}
+
+	public Tray getTray(int teamNumber) {
+		return (teamNumber == 0) ? playerTray : computerTray;
 	}
 
 	public void createComputerSetup() {
-		int flagSpot = (int) (Math.random()*9);
-		board[flagSpot][9] = computerTray[11].takePiece(1);
+		createComputerSetup(null);
+	}
+
+	//Uses Math.random when rnd is null
+	public void createComputerSetup(Random rnd) {
+		int flagSpot = (rnd == null) ? (int) (Math.random()*9) : rnd.nextInt(9);
+		placePiece(flagSpot, 9, computerTray.takePiece(Rules.FLAG, 1));
 		for(int x = 0; x < DEFAULT_BOARD_SIZE; x++) {
 			for(int y = DEFAULT_BOARD_SIZE-1; y > DEFAULT_BOARD_SIZE/2; y--) {
 				if(board[x][y] == null
 						&& !isWater(x,y)) {
-					board[x][y] = randomPiece(computerTray, 1);
+					placePiece(x, y, computerTray.takeRandomPiece(1, rnd));
 				}
 			}
 		}
 	}
 
 	public void createPlayerSetup() {
-		int flagSpot = (int) (Math.random()*9);
-		board[flagSpot][0] = playerTray[11].takePiece(0);
+		createPlayerSetup(null);
+	}
+
+	//Uses Math.random when rnd is null
+	public void createPlayerSetup(Random rnd) {
+		int flagSpot = (rnd == null) ? (int) (Math.random()*9) : rnd.nextInt(9);
+		placePiece(flagSpot, 0, playerTray.takePiece(Rules.FLAG, 0));
 		for(int x = 0; x < DEFAULT_BOARD_SIZE; x++) {
 			for(int y = 0; y < (DEFAULT_BOARD_SIZE/2)-1; y++) {
 				if(board[x][y] == null
 						&& !isWater(x,y)) {
-					board[x][y] = randomPiece(playerTray, 0);
+					placePiece(x, y, playerTray.takeRandomPiece(0, rnd));
 				}
 			}
 		}
 	}
 
 	public Piece randomPiece(TrayPiece[] tray, int teamNumber) {
+		Tray t = trayFor(tray);
+		if(t != null) {
+			return t.takeRandomPiece(teamNumber);
+		}
 		int randomSlot;
 		while(!isTrayEmpty(tray)) {
 			randomSlot = (int)(Math.random()*11);
@@ -278,7 +272,15 @@ public class Board {
 		return null;
 	}
 
+	public boolean isTrayEmpty(int teamNumber) {
+		return getTray(teamNumber).isEmpty();
+	}
+
 	public boolean isTrayEmpty(TrayPiece[] tray) {
+		Tray t = trayFor(tray);
+		if(t != null) {
+			return t.isEmpty();
+		}
 		for(int x = 0; x < tray.length; x++) {
 			if(tray[x].getRemaining()>0) {
 				return false;
@@ -287,35 +289,76 @@ public class Board {
 		return true;
 	}
 
+	private Tray trayFor(TrayPiece[] tray) {
+		if(tray == playerTray.getPieces()) return playerTray;
+		if(tray == computerTray.getPieces()) return computerTray;
+		return null;
+	}
+
 	public Piece[][] getBoard() {
 		return board;
 	}
 
 	public void setBoard(Piece[][] board) {
 		this.board = board;
+		hash = Zobrist.hash(board, sideToMove);
+		publish();
+	}
+
+	//Immutable copy of the board as of the last movePiece, placePiece or setBoard
+	public BoardSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	//Call after editing getBoard() directly so readers and the move generator see the change
+	public void publish() {
+		bits.setPieces(board);
+		snapshot = BoardSnapshot.of(this);
+	}
+
+	//Masks of the pieces, as of the last change made through Board
+	public BitBoard getBitBoard() {
+		return bits;
+	}
+
+	//64 bit Zobrist key of the position. Edits made straight to getBoard() are not tracked, use placePiece or setBoard
+	public long getHash() {
+		return hash;
+	}
+
+	public int getSideToMove() {
+		return sideToMove;
+	}
+
+	public void setSideToMove(int sideToMove) {
+		hash ^= Zobrist.sideKey(this.sideToMove) ^ Zobrist.sideKey(sideToMove);
+		this.sideToMove = sideToMove;
 	}
 
 	public TrayPiece[] getPlayerTray() {
-		return playerTray;
+		return playerTray.getPieces();
 	}
 
 	public void setPlayerTray(TrayPiece[] playerTray) {
-		this.playerTray = playerTray;
+		this.playerTray = new Tray(playerTray);
 	}
 
 	public TrayPiece[] getComputerTray() {
-		return computerTray;
+		return computerTray.getPieces();
 	}
 
 	public void setComputerTray(TrayPiece[] computerTray) {
-		this.computerTray = computerTray;
+		this.computerTray = new Tray(computerTray);
 	}
 
 	public boolean isGameFinished() {return gameFinished;}
 
 	public void setGameFinished(boolean gameFinished) {this.gameFinished = gameFinished;
+		publish();
 	}
 	public int getWinner() {return winner;}
 
-	public void setWinner(int winner) {this.winner = winner;}
+	public void setWinner(int winner) {this.winner = winner;
+		publish();
+	}
 }
@@ -0,0 +1,124 @@
+package com.game.stratego.core.stratego;
+
+/**
+ * Lookup tables for the fixed shape of the board, built once when the class loads.
+ * Squares are numbered x * 10 + y.
+ */
+public class BoardGeometry {
+	public static final int SQUARES = Board.DEFAULT_BOARD_SIZE * Board.DEFAULT_BOARD_SIZE;
+
+	//Directions, in the order their squares come up in an (x,y) scan
+	public static final int LEFT = 0;
+	public static final int DOWN = 1;
+	public static final int UP = 2;
+	public static final int RIGHT = 3;
+
+	private static final int[] DX = {-1, 0, 0, 1};
+	private static final int[] DY = {0, -1, 1, 0};
+
+	private static final boolean[] WATER = new boolean[SQUARES];
+	private static final int[] X = new int[SQUARES];
+	private static final int[] Y = new int[SQUARES];
+	private static final int[][] NEIGHBOURS = new int[SQUARES][]; //Land squares one step away
+	private static final int[][][] RAYS = new int[4][SQUARES][]; //Land squares walking outward until the edge or water
+
+	static {
+		for(int sq = 0; sq < SQUARES; sq++) {
+			int x = sq / Board.DEFAULT_BOARD_SIZE;
+			int y = sq % Board.DEFAULT_BOARD_SIZE;
+			X[sq] = x;
+			Y[sq] = y;
+			WATER[sq] = (y == 4 || y == 5) && (x == 2 || x == 3 || x == 6 || x == 7);
+		}
+		for(int sq = 0; sq < SQUARES; sq++) {
+			int[] neighbours = new int[4];
+			int count = 0;
+			for(int dir = 0; dir < 4; dir++) {
+				int[] ray = new int[Board.DEFAULT_BOARD_SIZE];
+				int length = 0;
+				int x = X[sq] + DX[dir];
+				int y = Y[sq] + DY[dir];
+				while(onBoard(x, y) && !WATER[square(x, y)]) {
+					ray[length++] = square(x, y);
+					x += DX[dir];
+					y += DY[dir];
+				}
+				RAYS[dir][sq] = copyOf(ray, length);
+				if(length > 0) {
+					neighbours[count++] = ray[0];
+				}
+			}
+			NEIGHBOURS[sq] = copyOf(neighbours, count);
+		}
+	}
+
+	private static int[] copyOf(int[] a, int length) {
+		int[] copy = new int[length];
+		System.arraycopy(a, 0, copy, 0, length);
+		return copy;
+	}
+
+	public static boolean onBoard(int x, int y) {
+		return x >= 0 && y >= 0 && x < Board.DEFAULT_BOARD_SIZE && y < Board.DEFAULT_BOARD_SIZE;
+	}
+
+	public static int square(int x, int y) {
+		return x * Board.DEFAULT_BOARD_SIZE + y;
+	}
+
+	public static int x(int sq) {
+		return X[sq];
+	}
+
+	public static int y(int sq) {
+		return Y[sq];
+	}
+
+	public static boolean isWater(int x, int y) {
+		return onBoard(x, y) && WATER[square(x, y)];
+	}
+
+	public static boolean isWater(int sq) {
+		return WATER[sq];
+	}
+
+	public static int[] neighbours(int sq) {
+		return NEIGHBOURS[sq];
+	}
+
+	public static int[] ray(int direction, int sq) {
+		return RAYS[direction][sq];
+	}
+
+	//Returns the direction from one square to another in the same row or column, or -1
+	public static int direction(int x1, int y1, int x2, int y2) {
+		if(x1 == x2) {
+			if(y2 < y1) return DOWN;
+			if(y2 > y1) return UP;
+		}
+		else if(y1 == y2) {
+			return (x2 < x1) ? LEFT : RIGHT;
+		}
+		return -1;
+	}
+
+	//True if a piece or water sits strictly between two squares in the same row or column
+	public static boolean isPathBlocked(Piece[][] board, int x1, int y1, int x2, int y2) {
+		int direction = direction(x1, y1, x2, y2);
+		if(direction == -1) {
+			return false;
+		}
+		int to = square(x2, y2);
+		int[] ray = RAYS[direction][square(x1, y1)];
+		for(int i = 0; i < ray.length; i++) {
+			int sq = ray[i];
+			if(sq == to) {
+				return false;
+			}
+			if(board[X[sq]][Y[sq]] != null) {
+				return true;
+			}
+		}
+		return true; //Water is between the squares
+	}
+}
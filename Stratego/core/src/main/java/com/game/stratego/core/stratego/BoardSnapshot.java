@@ -0,0 +1,115 @@
+package com.game.stratego.core.stratego;
+
+/**
+ * Immutable copy of a board position, one byte per square.
+ * Snapshots are never changed after they are built, so any number of threads
+ * can read the same one without copying or locking.
+ */
+public final class BoardSnapshot {
+	//Square byte: bits 0-3 rank index + 1 (0 is an empty square), bit 4 team, bit 5 revealed, bit 6 moved
+	private static final int RANK_MASK = 0x0F;
+	private static final int TEAM_BIT = 0x10;
+	private static final int REVEALED_BIT = 0x20;
+	private static final int MOVED_BIT = 0x40;
+
+	private final byte[] squares;
+	private final boolean gameFinished;
+	private final int winner;
+	private final long hash;
+
+	private BoardSnapshot(byte[] squares, boolean gameFinished, int winner, long hash) {
+		this.squares = squares;
+		this.gameFinished = gameFinished;
+		this.winner = winner;
+		this.hash = hash;
+	}
+
+	public static BoardSnapshot of(Board board) {
+		byte[] squares = new byte[BoardGeometry.SQUARES];
+		Piece[][] b = board.getBoard();
+		for(int sq = 0; sq < BoardGeometry.SQUARES; sq++) {
+			squares[sq] = encode(b[BoardGeometry.x(sq)][BoardGeometry.y(sq)]);
+		}
+		return new BoardSnapshot(squares, board.isGameFinished(), board.getWinner(), board.getHash());
+	}
+
+	public static byte encode(Piece p) {
+		if(p == null) {
+			return 0;
+		}
+		int code = p.getRankIndex() + 1;
+		if(p.getTeamNumber() == 1) code |= TEAM_BIT;
+		if(p.isRevealed()) code |= REVEALED_BIT;
+		if(p.hasMoved()) code |= MOVED_BIT;
+		return (byte) code;
+	}
+
+	//Builds the snapshot that follows this one after a move changed the two squares
+	public BoardSnapshot withMove(Board board, int x1, int y1, int x2, int y2) {
+		byte[] next = squares.clone();
+		Piece[][] b = board.getBoard();
+		next[BoardGeometry.square(x1, y1)] = encode(b[x1][y1]);
+		next[BoardGeometry.square(x2, y2)] = encode(b[x2][y2]);
+		return new BoardSnapshot(next, board.isGameFinished(), board.getWinner(), board.getHash());
+	}
+
+	public Piece[][] toPieces() {
+		Piece[][] board = new Piece[Board.DEFAULT_BOARD_SIZE][Board.DEFAULT_BOARD_SIZE];
+		for(int sq = 0; sq < BoardGeometry.SQUARES; sq++) {
+			int code = squares[sq];
+			if(code == 0) {
+				continue;
+			}
+			Piece p = new Piece(Piece.RANKS[(code & RANK_MASK) - 1], (code & TEAM_BIT) != 0 ? 1 : 0);
+			p.setIsRevealed((code & REVEALED_BIT) != 0);
+			p.setHasMoved((code & MOVED_BIT) != 0);
+			board[BoardGeometry.x(sq)][BoardGeometry.y(sq)] = p;
+		}
+		return board;
+	}
+
+	public byte getCode(int x, int y) {
+		return squares[BoardGeometry.square(x, y)];
+	}
+
+	public boolean isEmpty(int x, int y) {
+		return getCode(x, y) == 0;
+	}
+
+	//Returns -1 for an empty square
+	public int getRankIndex(int x, int y) {
+		return (getCode(x, y) & RANK_MASK) - 1;
+	}
+
+	public char getRank(int x, int y) {
+		int rank = getRankIndex(x, y);
+		return (rank < 0) ? ' ' : Piece.RANKS[rank];
+	}
+
+	//Returns -1 for an empty square
+	public int getTeamNumber(int x, int y) {
+		int code = getCode(x, y);
+		if(code == 0) return -1;
+		return (code & TEAM_BIT) != 0 ? 1 : 0;
+	}
+
+	public boolean isRevealed(int x, int y) {
+		return (getCode(x, y) & REVEALED_BIT) != 0;
+	}
+
+	public boolean hasMoved(int x, int y) {
+		return (getCode(x, y) & MOVED_BIT) != 0;
+	}
+
+	public boolean isGameFinished() {
+		return gameFinished;
+	}
+
+	public int getWinner() {
+		return winner;
+	}
+
+	public long getHash() {
+		return hash;
+	}
+}
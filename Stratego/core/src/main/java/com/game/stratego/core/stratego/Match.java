@@ -2,18 +2,22 @@ package com.game.stratego.core.stratego;
 
 import com.game.stratego.core.ai.NeuralNetAI;
 import com.game.stratego.core.screens.GameScreen;
-import org.deeplearning4j.datasets.iterator.impl.ListDataSetIterator;
-import org.deeplearning4j.eval.Evaluation;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.DataSet;
-import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
 import org.nd4j.linalg.factory.Nd4j;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 public class Match {
 	private Board board;
@@ -23,6 +27,12 @@ public class Match {
 	private int currentTurn; //0 = Player; 1 = Computer
 	private String state;
 	public boolean useRandomMoves = false;
+	public long moveTimeLimit = 0; //Milliseconds the computer may search each move, a random move is played if it runs well over. 0 for no limit
+
+	private ExecutorService aiThread;
+	private ExecutorService scoringPool; //Splits big move lists across the cores, null on one core
+	private Future<Move> pendingMove;
+	private long thinkStart;
 
 	public Match(GameScreen game) {
 		board = new Board();
@@ -32,27 +42,50 @@ public class Match {
 		getGameBoard().createComputerSetup();
 		//getGameBoard().createPlayerSetup();
 		computerPlayer = new NeuralNetAI(false, "NeuralNetwork19.zip");
+		aiThread = Executors.newSingleThreadExecutor(daemonThreads("Stratego AI"));
+		int cores = Runtime.getRuntime().availableProcessors();
+		if (cores > 1) {
+			scoringPool = Executors.newFixedThreadPool(cores, daemonThreads("Stratego scoring"));
+			computerPlayer.setParallelScoring(scoringPool, cores);
+		}
+	}
+
+	private static ThreadFactory daemonThreads(final String name) {
+		return new ThreadFactory() {
+			private int count = 0;
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, (count == 0) ? name : name + " " + count);
+				count++;
+				t.setDaemon(true);
+				return t;
+			}
+		};
 	}
 
 
 	public void update() {
 		if (state.equals("make")) {
-			if (board.isTrayEmpty(board.getComputerTray())
-					&& board.isTrayEmpty(board.getPlayerTray())) {
+			if (board.isTrayEmpty(1) && board.isTrayEmpty(0)) {
 				state = "play";
 			}
 		} else if (state.equals("play")) {
 			if (currentTurn == 1) { //Computer turn
-				Piece[][] temp = Board.cloneBoard(this.getBoard());
-				Move m = computerPlayer.getMove(temp, 1, true, useRandomMoves);
+				if (pendingMove == null) {
+					startComputerMove();
+				}
+				if (!computerMoveReady()) {
+					return;
+				}
+				Move m = takeComputerMove();
 				if (m == null) {
 					this.getGameBoard().setGameFinished(true);
 					this.getGameBoard().setWinner(0);
 				} else {
-					int x1 = m.source.x;
-					int y1 = m.source.y;
-					int x2 = m.destination.x;
-					int y2 = m.destination.y;
+					int x1 = m.getSourceX();
+					int y1 = m.getSourceY();
+					int x2 = m.getDestinationX();
+					int y2 = m.getDestinationY();
 
 					if (getGameBoard().movePiece(x1, y1, x2, y2)) {
 						setCurrentTurn(0);
@@ -63,17 +96,17 @@ public class Match {
 				}
 			}
 			/*else {
-				Piece[][] temp = Board.cloneBoard(this.getBoard());
+				Piece[][] temp = board.getSnapshot().toPieces();
 				Move m = computerPlayer.getMove(temp, 0, true, true);
 				if(m == null) {
 					this.getGameBoard().setGameFinished(true);
 					this.getGameBoard().setWinner(1);
 				}
 				else {
-					int x1 = m.source.x;
-					int y1 = m.source.y;
-					int x2 = m.destination.x;
-					int y2 = m.destination.y;
+					int x1 = m.getSourceX();
+					int y1 = m.getSourceY();
+					int x2 = m.getDestinationX();
+					int y2 = m.getDestinationY();
 
 					if (getGameBoard().movePiece(x1, y1, x2, y2)) {
 						setCurrentTurn(1);
@@ -89,6 +122,65 @@ public class Match {
 		}
 	}
 
+	private static final long OVERRUN_GRACE = 250; //Milliseconds past the limit before the computer's move is given up on
+
+	//Starts the computer's move on the AI thread. A time limit is handed to the AI as its search budget
+	private void startComputerMove() {
+		final Piece[][] temp = board.getSnapshot().toPieces();
+		final boolean random = useRandomMoves;
+		computerPlayer.setMoveTimeLimit(moveTimeLimit);
+		thinkStart = System.currentTimeMillis();
+		pendingMove = aiThread.submit(new Callable<Move>() {
+			@Override
+			public Move call() {
+				return computerPlayer.getMove(temp, 1, true, random);
+			}
+		});
+	}
+
+	//True once the move is worked out, or once the AI has run well past its time limit
+	private boolean computerMoveReady() {
+		return pendingMove.isDone()
+				|| (moveTimeLimit > 0 && System.currentTimeMillis() - thinkStart >= moveTimeLimit + OVERRUN_GRACE);
+	}
+
+	//The computer's move, or a random legal move if it overran or failed. Null if it has no moves
+	private Move takeComputerMove() {
+		Future<Move> done = pendingMove;
+		if (!done.isDone()) {
+			//The searches stop on interrupt, so the AI thread is free again for the next turn
+			cancelComputerMove();
+			return randomComputerMove();
+		}
+		pendingMove = null;
+		try {
+			return done.get();
+		} catch (ExecutionException e) {
+			//Asking again would most likely fail the same way every frame
+			e.printStackTrace();
+			return randomComputerMove();
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e); //get doesn't wait on a finished task
+		}
+	}
+
+	private Move randomComputerMove() {
+		ArrayList<Move> moves = board.getLegalMoves(1);
+		return moves.isEmpty() ? null : moves.get((int) (Math.random() * moves.size()));
+	}
+
+	private void cancelComputerMove() {
+		if (pendingMove != null) {
+			pendingMove.cancel(true);
+			pendingMove = null;
+		}
+	}
+
+	//True while the computer is working out its move, the player can't move until it is done
+	public boolean isThinking() {
+		return pendingMove != null;
+	}
+
 	public static void main(String args[]) {
 		for(int x = 0; x < 1; x++) {
 			System.out.println("Go: " + x);
@@ -101,46 +193,31 @@ public class Match {
 		NeuralNetAI Ai1 = null;
 		Ai1 = new NeuralNetAI(true, "NeuralNetwork.zip"); //Save to this one
 		MultiLayerNetwork network = Ai1.getNetwork();
-		//Get data
-		ArrayList<DataSet> data = new ArrayList<DataSet>();
-
 		int numOfGames = 700;
-		DataSetIterator iter = new ListDataSetIterator(data);
-
-		System.out.println("Playing " + numOfGames + " games.");
-		for(int x = 0; x < numOfGames; x++) {
-			System.out.println("Game " + x + ":");
-			ArrayList<DataSet> temp = playGame(false);
-			if(temp != null && !temp.isEmpty())
-				data.addAll(temp);
-			else {
-				x--;
-				continue;
-			}
-		}
-
-
-		iter = new ListDataSetIterator(data, 5);
-		//train
-		System.out.println("Training over " + data.size() + " DataSets...");
-		while(iter.hasNext()) {
-			DataSet next = iter.next();
-			network.fit(next);
-			INDArray predict2 = network.output(next.getFeatureMatrix());
-			System.out.println("outputs: " + predict2.toString());
+		int workers = Runtime.getRuntime().availableProcessors();
+		System.out.println("Playing " + numOfGames + " games on " + workers + " threads while training.");
+		SelfPlay selfPlay = new SelfPlay(workers, "NeuralNetwork19.zip", System.nanoTime());
+		TrainingPipeline pipeline = new TrainingPipeline(network, TrainingPipeline.DEFAULT_BATCH_SIZE, TrainingPipeline.DEFAULT_QUEUE_CAPACITY);
+		ReplayBuffer replay = null;
+		try {
+			replay = new ReplayBuffer(new File("assets/replay"), ReplayBuffer.DEFAULT_SEGMENT_CAPACITY, 32);
+			System.out.println("Replaying from " + replay);
+			pipeline.setReplayBuffer(replay, 1);
+		} catch(IOException e) {
+			e.printStackTrace(); //Train on the new games only
 		}
-
-		//eval
-		iter.reset();
-		System.out.println("Evaluating...");
-		Evaluation eval = new Evaluation();
-		while (iter.hasNext()) {
-			DataSet next = iter.next();
-			INDArray predict2 = network.output(next.getFeatureMatrix());
-			eval.eval(next.getLabels(), predict2);
+		try {
+			pipeline.run(selfPlay, numOfGames);
+		} finally {
+			if(replay != null) {
+				replay.flush(); //Keep what was saved even if training failed
+			}
 		}
+		System.out.println(selfPlay);
+		System.out.println(pipeline);
 
-		System.out.println(eval.stats());
+		//Every tenth batch was scored just before it was fitted
+		System.out.println(pipeline.getEvaluation().stats());
 		//Save network
 		System.out.println("Saving network.");
 		try {
@@ -148,7 +225,6 @@ public class Match {
 		} catch(IOException e) {
 			e.printStackTrace();
 		}
-		data = new ArrayList<DataSet>();
 		//Save network
         System.out.println("Saving network.");
 		try {
@@ -160,19 +236,32 @@ public class Match {
 	}
 	public static int lastWin = 0;
 	public static ArrayList<DataSet> playGame(boolean debug) {
+		if(debug) System.out.println("     Create Ai1");
+		NeuralNetAI MoveAi = new NeuralNetAI(false, "NeuralNetwork19.zip"); //This is what it battles against
+		try {
+			int[] last = {lastWin};
+			ArrayList<DataSet> data = playGame(debug, MoveAi, null, last);
+			lastWin = last[0];
+			return data;
+		} finally {
+			MoveAi.release();
+		}
+	}
+
+	//lastWin[0] is the winner of the caller's previous game, a second win in a row for the same side is thrown away.
+	//rnd drives the setups and the shuffle, Math.random when null
+	static ArrayList<DataSet> playGame(boolean debug, NeuralNetAI MoveAi, Random rnd, int[] lastWin) {
 		boolean DEBUG = debug;
 		boolean randomMoves = false;
 		//Create initial board
 		Board board = new Board();
-		board.createComputerSetup();
-		board.createPlayerSetup();
+		board.createComputerSetup(rnd);
+		board.createPlayerSetup(rnd);
 		//Create empty datasets
 		float dataset1Label = 0;
 		ArrayList<INDArray> dataset1 = new ArrayList<INDArray>();
 		float dataset2Label = 0;
 		ArrayList<INDArray> dataset2 = new ArrayList<INDArray>();
-		if(DEBUG) System.out.println("     Create Ai1");
-		NeuralNetAI MoveAi = new NeuralNetAI(false, "NeuralNetwork19.zip"); //This is what it battles against
 		int turnNum = 0;
 		int fullTurnNum = 0;
 		System.out.println("     Start game.");
@@ -183,7 +272,8 @@ public class Match {
 			}
 			if(turnNum == 1) { //Ai
 				if(DEBUG) System.out.println("     Ai's turn");
-				Move m = MoveAi.getMove(Board.cloneBoard(board.getBoard()), 1, false, randomMoves);
+				//Snapshot copy keeps the revealed and moved flags that information set search reads
+				Move m = MoveAi.getMove(board.getSnapshot().toPieces(), 1, false, randomMoves);
 				if(m == null) {
 					/*turnNum = 0;
 					INDArray b = NeuralNetAI.getINDArray(board.getBoard());
@@ -192,10 +282,10 @@ public class Match {
 					System.out.println("Ai has no more moves.");
 					return null;
 				}
-				int x1 = m.source.x;
-				int y1 = m.source.y;
-				int x2 = m.destination.x;
-				int y2 = m.destination.y;
+				int x1 = m.getSourceX();
+				int y1 = m.getSourceY();
+				int x2 = m.getDestinationX();
+				int y2 = m.getDestinationY();
 				board.movePiece(x1, y1, x2, y2);
 				INDArray b = NeuralNetAI.getINDArray(board.getBoard());
 				dataset1.add(b);
@@ -216,10 +306,10 @@ public class Match {
 					System.out.println("Random has no more moves.");
 					return null;
 				}
-				int x1 = m.source.x;
-				int y1 = m.source.y;
-				int x2 = m.destination.x;
-				int y2 = m.destination.y;
+				int x1 = m.getSourceX();
+				int y1 = m.getSourceY();
+				int x2 = m.getDestinationX();
+				int y2 = m.getDestinationY();
 				board.movePiece(x1, y1, x2, y2);
 				INDArray b = NeuralNetAI.getINDArrayFlipped(board.getBoard());
 				dataset2.add(b);
@@ -232,11 +322,11 @@ public class Match {
 			fullTurnNum++;
 		}
 		System.out.println("     Game over. Ai"+(turnNum+1)+" won.");
-		if(turnNum == lastWin) {
+		if(turnNum == lastWin[0]) {
 			return null;
 		}
 		else {
-			lastWin = turnNum;
+			lastWin[0] = turnNum;
 		}
 		//Label datasets with a 1 if that ai won
 		//label with a 0 if they lost
@@ -282,7 +372,7 @@ public class Match {
 		//System.out.println("x: " + x);
 		//System.out.println("y: " + y);
 		long seed = System.nanoTime();
-		Collections.shuffle(d1, new Random(seed));
+		Collections.shuffle(d1, (rnd == null) ? new Random(seed) : rnd);
 		return d1;
 	}
 
@@ -297,6 +387,16 @@ public class Match {
 	}
 
 
+	//Stops any move being worked out and gives the computer player's network back to the model registry
+	public void dispose() {
+		cancelComputerMove();
+		aiThread.shutdownNow();
+		if (scoringPool != null) {
+			scoringPool.shutdownNow();
+		}
+		computerPlayer.release();
+	}
+
 	public Piece[][] getBoard() {
 		return board.getBoard();
 	}
@@ -1,20 +1,92 @@
 package com.game.stratego.core.stratego;
 
-import java.awt.*;
-
 /**
  * Created by user on 3/18/2017.
+ *
+ * Moves are packed into an int: bits 0-6 hold the source square, bits 7-13 the
+ * destination square (square = x * 10 + y) and the bits above that hold flags.
+ * The static methods work on packed moves; a Move object just wraps one.
  */
 public class Move {
-    public Point source;
-    public Point destination;
+    public static final int CAPTURE = 1 << 14; //Destination held an enemy piece when the move was generated
+
+    private static final int SQUARE_MASK = 0x7F;
+    private static final int DESTINATION_SHIFT = 7;
+    private static final int FLAG_SHIFT = 14;
+
+    private final int packed;
+
+    public Move(int packed) {
+        this.packed = packed;
+    }
+
+    public Move(int x1, int y1, int x2, int y2) {
+        this(encode(x1, y1, x2, y2, 0));
+    }
+
+    public static int encode(int x1, int y1, int x2, int y2, int flags) {
+        return (x1 * Board.DEFAULT_BOARD_SIZE + y1)
+                | ((x2 * Board.DEFAULT_BOARD_SIZE + y2) << DESTINATION_SHIFT)
+                | flags;
+    }
+
+    public static int source(int move) {
+        return move & SQUARE_MASK;
+    }
+
+    public static int destination(int move) {
+        return (move >>> DESTINATION_SHIFT) & SQUARE_MASK;
+    }
+
+    public static int flags(int move) {
+        return move & ~((1 << FLAG_SHIFT) - 1);
+    }
+
+    public static boolean isCapture(int move) {
+        return (move & CAPTURE) != 0;
+    }
+
+    public static int sourceX(int move) {
+        return source(move) / Board.DEFAULT_BOARD_SIZE;
+    }
+
+    public static int sourceY(int move) {
+        return source(move) % Board.DEFAULT_BOARD_SIZE;
+    }
+
+    public static int destinationX(int move) {
+        return destination(move) / Board.DEFAULT_BOARD_SIZE;
+    }
+
+    public static int destinationY(int move) {
+        return destination(move) % Board.DEFAULT_BOARD_SIZE;
+    }
+
+    public static String toString(int move) {
+        return "(" + sourceX(move) + "," + sourceY(move) + ") -> (" + destinationX(move) + "," + destinationY(move) + ")";
+    }
+
+    public int getPacked() {
+        return packed;
+    }
+
+    public int getSourceX() {
+        return sourceX(packed);
+    }
+
+    public int getSourceY() {
+        return sourceY(packed);
+    }
+
+    public int getDestinationX() {
+        return destinationX(packed);
+    }
 
-    public Move(Point s, Point d) {
-        source = s;
-        destination = d;
+    public int getDestinationY() {
+        return destinationY(packed);
     }
 
     public String toString() {
-        return "(" + source.x + "," + source.y + ") -> (" + destination.x + "," + destination.y + ")";
+        return toString(packed);
     }
 }
@@ -0,0 +1,102 @@
+package com.game.stratego.core.stratego;
+
+import java.util.ArrayList;
+
+/**
+ * Generates the legal moves for one team by walking only that team's pieces.
+ * Moves come out in the same (x1,y1,x2,y2) order as a full scan of the board.
+ * Moves are found from BitBoard masks. Board passes the masks it keeps,
+ * the Piece[][] versions build them from the array first.
+ */
+public class MoveGenerator {
+
+	public static ArrayList<Move> generateMoves(Piece[][] board, int teamNum) {
+		return generateMoves(new BitBoard(board), teamNum);
+	}
+
+	public static void generateMoves(Piece[][] board, int teamNum, MoveList moves) {
+		generateMoves(new BitBoard(board), teamNum, moves);
+	}
+
+	public static ArrayList<Move> generateMoves(BitBoard bits, int teamNum) {
+		MoveList list = new MoveList();
+		generateMoves(bits, teamNum, list);
+		ArrayList<Move> moves = new ArrayList<Move>(list.size());
+		for(int i = 0; i < list.size(); i++) {
+			moves.add(list.toMove(i));
+		}
+		return moves;
+	}
+
+	public static void generateMoves(BitBoard bits, int teamNum, MoveList moves) {
+		moves.clear();
+		//Squares go up in scan order, so taking the lowest set bit first keeps that order
+		for(int word = 0; word < BitBoard.WORDS; word++) {
+			long pieces = bits.movable(teamNum, word);
+			long scouts = bits.pieces(teamNum, Rules.SCOUT, word);
+			while(pieces != 0) {
+				long bit = pieces & -pieces;
+				pieces ^= bit;
+				int from = (word << 6) + Long.numberOfTrailingZeros(bit);
+				if((scouts & bit) != 0) {
+					addScoutMoves(bits, teamNum, from, moves);
+				}
+				else {
+					int[] neighbours = BoardGeometry.neighbours(from);
+					for(int i = 0; i < neighbours.length; i++) {
+						addStep(bits, teamNum, from, neighbours[i], moves);
+					}
+				}
+			}
+		}
+	}
+
+	private static void addStep(BitBoard bits, int teamNum, int from, int to, MoveList moves) {
+		int team = bits.teamAt(to);
+		if(team == -1) {
+			moves.add(encode(from, to, 0));
+		}
+		else if(team != teamNum) {
+			moves.add(encode(from, to, Move.CAPTURE));
+		}
+	}
+
+	private static int encode(int from, int to, int flags) {
+		return Move.encode(BoardGeometry.x(from), BoardGeometry.y(from), BoardGeometry.x(to), BoardGeometry.y(to), flags);
+	}
+
+	//Index of the first occupied square on the ray, or the ray's length if it is clear
+	private static int firstBlocker(BitBoard bits, int direction, int from, int[] ray) {
+		int blocker = bits.firstBlocker(direction, from);
+		if(blocker == -1) {
+			return ray.length;
+		}
+		//Rays are straight lines out from the square, so the index is the distance less one
+		return Math.abs(BoardGeometry.x(blocker) - BoardGeometry.x(from))
+				+ Math.abs(BoardGeometry.y(blocker) - BoardGeometry.y(from)) - 1;
+	}
+
+	private static void addScoutMoves(BitBoard bits, int teamNum, int from, MoveList moves) {
+		//Left and down rays are emitted farthest square first to keep scan order
+		for(int dir = BoardGeometry.LEFT; dir <= BoardGeometry.DOWN; dir++) {
+			int[] ray = BoardGeometry.ray(dir, from);
+			int stop = firstBlocker(bits, dir, from, ray);
+			if(stop < ray.length) {
+				addStep(bits, teamNum, from, ray[stop], moves);
+			}
+			for(int i = stop-1; i >= 0; i--) {
+				moves.add(encode(from, ray[i], 0));
+			}
+		}
+		for(int dir = BoardGeometry.UP; dir <= BoardGeometry.RIGHT; dir++) {
+			int[] ray = BoardGeometry.ray(dir, from);
+			int stop = firstBlocker(bits, dir, from, ray);
+			for(int i = 0; i < stop; i++) {
+				moves.add(encode(from, ray[i], 0));
+			}
+			if(stop < ray.length) {
+				addStep(bits, teamNum, from, ray[stop], moves);
+			}
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package com.game.stratego.core.stratego;
+
+import java.util.Random;
+
+/**
+ * Checks Board's mask move generation against the array rules on random games.
+ * At every ply the moves from Board.getLegalMoves must match, in order, a scan of
+ * every square pair through Rules.isLegalMove on the Piece array, and the
+ * BitBoard must hold the same piece as the array on every square. Every move of
+ * the position is also made and unmade, and the masks must come back unchanged.
+ * Throws IllegalStateException at the first difference.
+ * Usage: MoveGeneratorCheck [games] [seed]
+ */
+public class MoveGeneratorCheck {
+	private static final int MAX_PLIES = 1000;
+
+	public static void main(String[] args) {
+		int games = (args != null && args.length > 0) ? Integer.parseInt(args[0]) : 200;
+		long seed = (args != null && args.length > 1) ? Long.parseLong(args[1]) : 1;
+		System.out.println(run(games, new Random(seed)));
+	}
+
+	public static String run(int games, Random rnd) {
+		MoveList moves = new MoveList();
+		MoveList expected = new MoveList();
+		MoveList after = new MoveList();
+		long positions = 0;
+		long checked = 0;
+		for(int g = 0; g < games; g++) {
+			Board b = new Board();
+			b.createComputerSetup(rnd);
+			b.createPlayerSetup(rnd);
+			int turn = 0;
+			for(int ply = 0; ply < MAX_PLIES && !b.isGameFinished(); ply++) {
+				checkMasks(b);
+				b.getLegalMoves(turn, moves);
+				scan(b.getBoard(), turn, expected);
+				compare(moves, expected, "game " + g + " ply " + ply);
+				for(int i = 0; i < moves.size(); i++) {
+					UndoRecord u = b.makeMove(moves.get(i));
+					checkMasks(b);
+					b.unmakeMove(u);
+				}
+				b.getLegalMoves(turn, after);
+				compare(after, expected, "game " + g + " ply " + ply + " after unmake");
+				positions++;
+				checked += moves.size();
+				if(moves.isEmpty()) {
+					break;
+				}
+				b.makeMove(moves.get(rnd.nextInt(moves.size())));
+				turn = 1 - turn;
+			}
+		}
+		return "Masks match the array: " + games + " games, " + positions + " positions, " + checked + " moves";
+	}
+
+	//Every square pair in (x1,y1,x2,y2) order, the way moves were found before there was a generator
+	private static void scan(Piece[][] board, int team, MoveList moves) {
+		moves.clear();
+		int size = Board.DEFAULT_BOARD_SIZE;
+		for(int x1 = 0; x1 < size; x1++) {
+			for(int y1 = 0; y1 < size; y1++) {
+				if(board[x1][y1] == null || board[x1][y1].getTeamNumber() != team) {
+					continue;
+				}
+				for(int x2 = 0; x2 < size; x2++) {
+					for(int y2 = 0; y2 < size; y2++) {
+						if(Rules.isLegalMove(board, x1, y1, x2, y2)) {
+							moves.add(Move.encode(x1, y1, x2, y2, (board[x2][y2] != null) ? Move.CAPTURE : 0));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private static void compare(MoveList actual, MoveList expected, String where) {
+		if(actual.size() != expected.size()) {
+			throw new IllegalStateException(where + ": " + actual.size() + " moves from the masks, " + expected.size() + " from the array");
+		}
+		for(int i = 0; i < actual.size(); i++) {
+			if(actual.get(i) != expected.get(i)) {
+				throw new IllegalStateException(where + ": move " + i + " is " + Move.toString(actual.get(i))
+						+ " from the masks, " + Move.toString(expected.get(i)) + " from the array");
+			}
+		}
+	}
+
+	private static void checkMasks(Board b) {
+		BitBoard bits = b.getBitBoard();
+		Piece[][] board = b.getBoard();
+		for(int sq = 0; sq < BoardGeometry.SQUARES; sq++) {
+			Piece p = board[BoardGeometry.x(sq)][BoardGeometry.y(sq)];
+			int team = (p == null) ? -1 : p.getTeamNumber();
+			int rank = (p == null) ? -1 : p.getRankIndex();
+			if(bits.teamAt(sq) != team || bits.rankAt(sq) != rank) {
+				throw new IllegalStateException("Square " + sq + " holds team " + team + " rank " + rank
+						+ " but the masks say team " + bits.teamAt(sq) + " rank " + bits.rankAt(sq));
+			}
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package com.game.stratego.core.stratego;
+
+/**
+ * Growable list of packed moves (see Move). Meant to be cleared and reused.
+ */
+public class MoveList {
+	private int[] moves;
+	private int size;
+
+	public MoveList() {
+		this(64);
+	}
+
+	public MoveList(int capacity) {
+		moves = new int[Math.max(capacity, 1)];
+		size = 0;
+	}
+
+	public void add(int move) {
+		if(size == moves.length) {
+			int[] bigger = new int[moves.length * 2];
+			System.arraycopy(moves, 0, bigger, 0, size);
+			moves = bigger;
+		}
+		moves[size++] = move;
+	}
+
+	public int get(int i) {
+		return moves[i];
+	}
+
+	public void set(int i, int move) {
+		moves[i] = move;
+	}
+
+	public void swap(int i, int j) {
+		int temp = moves[i];
+		moves[i] = moves[j];
+		moves[j] = temp;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public Move toMove(int i) {
+		return new Move(moves[i]);
+	}
+}
@@ -2,12 +2,17 @@ package com.game.stratego.core.stratego;
 
 public class Piece {
 	private char rank;
+	private int rankIndex;
 	private boolean isRevealed;
 	private boolean hasMoved;
 	private int teamNumber;
+
+	//Ranks in tray order, so a rank index doubles as a tray slot
+	public static final char[] RANKS = {'1', '2', '3', '4', '5', '6', '7', '8', '9', 'S', 'B', 'F'};
 	
 	public Piece(char rank, int teamNumber) {
 		this.rank = rank;
+		this.rankIndex = rankIndex(rank);
 		isRevealed = false;
 		hasMoved = false;
 		this.teamNumber = teamNumber;
@@ -19,6 +24,11 @@ public class Piece {
 
 	public void setRank(char rank) {
 		this.rank = rank;
+		this.rankIndex = rankIndex(rank);
+	}
+
+	public int getRankIndex() {
+		return rankIndex;
 	}
 
 	public boolean isRevealed() {
@@ -45,5 +55,23 @@ public class Piece {
 		this.teamNumber = teamNumber;
 	}
 
+	public static int rankIndex(char rank) {
+		switch(rank) {
+			case '1': return 0;
+			case '2': return 1;
+			case '3': return 2;
+			case '4': return 3;
+			case '5': return 4;
+			case '6': return 5;
+			case '7': return 6;
+			case '8': return 7;
+			case '9': return 8;
+			case 'S': return 9;
+			case 'B': return 10;
+			case 'F': return 11;
+			default: return -1;
+		}
+	}
+
 
 }
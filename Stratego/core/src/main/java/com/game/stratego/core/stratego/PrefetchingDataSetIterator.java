@@ -0,0 +1,279 @@
+package com.game.stratego.core.stratego;
+
+import com.game.stratego.core.ai.BoardEncoder;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minibatches of encoded positions, put together on a background thread.
+ * Positions come from a list, or from a queue that is still being filled
+ * (call finish when nothing more will be added). Each batch is copied into
+ * one [n,1,10,10] feature and one [n,2] label array, and up to prefetch
+ * batches are made ahead of the caller, so fit doesn't wait on building them.
+ * Only list iterators can be reset.
+ */
+public class PrefetchingDataSetIterator implements DataSetIterator {
+	private static final long serialVersionUID = 1L;
+	private static final DataSet END = new DataSet(); //Marks the last batch
+	private static final int OUTCOMES = 2;
+	private static final long POLL_MILLIS = 100; //How often hasNext checks the worker is still there
+
+	private final List<DataSet> list;
+	private final BlockingQueue<DataSet> source;
+	private final int batchSize;
+	private final int prefetch;
+	private volatile DataSetPreProcessor preProcessor;
+
+	private volatile boolean finished; //No more positions will be put on source
+	private transient BlockingQueue<DataSet> ready;
+	private transient Thread worker;
+	private volatile Throwable failure;
+	private DataSet next;
+	private int cursor;
+
+	public PrefetchingDataSetIterator(List<DataSet> positions, int batchSize, int prefetch) {
+		this(positions, null, batchSize, prefetch);
+	}
+
+	public PrefetchingDataSetIterator(BlockingQueue<DataSet> positions, int batchSize, int prefetch) {
+		this(null, positions, batchSize, prefetch);
+	}
+
+	private PrefetchingDataSetIterator(List<DataSet> list, BlockingQueue<DataSet> source, int batchSize, int prefetch) {
+		if(batchSize <= 0 || prefetch <= 0) {
+			throw new IllegalArgumentException("Batch size and prefetch must be positive.");
+		}
+		this.list = list;
+		this.source = source;
+		this.batchSize = batchSize;
+		this.prefetch = prefetch;
+		start();
+	}
+
+	private void start() {
+		ready = new ArrayBlockingQueue<DataSet>(prefetch);
+		next = null;
+		cursor = 0;
+		failure = null;
+		final BlockingQueue<DataSet> out = ready;
+		worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					fill(out);
+				} catch(InterruptedException e) {
+					//Stopped by reset or shutdown
+				} catch(Throwable t) {
+					failure = t;
+					out.offer(END); //May not fit, hasNext also stops when the worker is gone
+				}
+			}
+		}, "Batch prefetch");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	//Builds batches until the positions run out
+	private void fill(BlockingQueue<DataSet> out) throws InterruptedException {
+		float[] features = new float[batchSize * BoardEncoder.INPUT_SIZE];
+		float[] labels = new float[batchSize * OUTCOMES];
+		int rows = 0;
+		int index = 0;
+		while(!Thread.currentThread().isInterrupted()) {
+			DataSet d;
+			if(list != null) {
+				if(index == list.size()) {
+					break;
+				}
+				d = list.get(index++);
+			}
+			else {
+				d = source.poll(100, TimeUnit.MILLISECONDS);
+				if(d == null) {
+					if(finished && source.isEmpty()) {
+						break;
+					}
+					continue;
+				}
+			}
+			INDArray f = d.getFeatures();
+			INDArray l = d.getLabels();
+			int n = d.numExamples();
+			for(int r = 0; r < n; r++) {
+				int from = r * BoardEncoder.INPUT_SIZE;
+				int to = rows * BoardEncoder.INPUT_SIZE;
+				for(int i = 0; i < BoardEncoder.INPUT_SIZE; i++) {
+					features[to + i] = f.getFloat(from + i); //Linear index, c order
+				}
+				labels[rows * OUTCOMES] = l.getFloat(r, 0);
+				labels[rows * OUTCOMES + 1] = l.getFloat(r, 1);
+				if(++rows == batchSize) {
+					out.put(batch(features, labels, rows));
+					features = new float[batchSize * BoardEncoder.INPUT_SIZE]; //The last batch owns the old arrays
+					labels = new float[batchSize * OUTCOMES];
+					rows = 0;
+				}
+			}
+		}
+		if(rows > 0) {
+			float[] f = new float[rows * BoardEncoder.INPUT_SIZE];
+			float[] l = new float[rows * OUTCOMES];
+			System.arraycopy(features, 0, f, 0, f.length);
+			System.arraycopy(labels, 0, l, 0, l.length);
+			out.put(batch(f, l, rows));
+		}
+		out.put(END);
+	}
+
+	private DataSet batch(float[] features, float[] labels, int rows) {
+		DataSet d = new DataSet(Nd4j.create(features, new int[]{rows, 1, Board.DEFAULT_BOARD_SIZE, Board.DEFAULT_BOARD_SIZE}),
+				Nd4j.create(labels, new int[]{rows, OUTCOMES}));
+		if(preProcessor != null) {
+			preProcessor.preProcess(d);
+		}
+		return d;
+	}
+
+	//Call once every position has been put on the queue, the last batch may be short
+	public void finish() {
+		finished = true;
+	}
+
+	//Stops the background thread, hasNext is false after the batches already made
+	public void shutdown() {
+		worker.interrupt();
+		ready.offer(END);
+	}
+
+	@Override
+	public boolean hasNext() {
+		if(next == null) {
+			try {
+				next = ready.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				while(next == null) {
+					if(!worker.isAlive()) {
+						//Stopped without room for END, take whatever it put before it stopped
+						next = ready.poll();
+						if(next == null) {
+							next = END;
+						}
+						break;
+					}
+					next = ready.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				}
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			if(failure != null) {
+				throw new RuntimeException("Building a batch failed.", failure);
+			}
+		}
+		return next != END;
+	}
+
+	@Override
+	public DataSet next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		DataSet d = next;
+		next = null;
+		cursor += d.numExamples();
+		return d;
+	}
+
+	//Batches are fixed when they are prefetched, so num is ignored
+	@Override
+	public DataSet next(int num) {
+		return next();
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public int totalExamples() {
+		if(list == null) {
+			throw new UnsupportedOperationException("A queue has no known size.");
+		}
+		return list.size();
+	}
+
+	@Override
+	public int inputColumns() {
+		return BoardEncoder.INPUT_SIZE;
+	}
+
+	@Override
+	public int totalOutcomes() {
+		return OUTCOMES;
+	}
+
+	@Override
+	public boolean resetSupported() {
+		return list != null;
+	}
+
+	//Already prefetches, so DL4J shouldn't wrap it in another async iterator
+	@Override
+	public boolean asyncSupported() {
+		return false;
+	}
+
+	@Override
+	public void reset() {
+		if(list == null) {
+			throw new UnsupportedOperationException("Can't reset an iterator over a queue.");
+		}
+		worker.interrupt();
+		try {
+			worker.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		start();
+	}
+
+	@Override
+	public int batch() {
+		return batchSize;
+	}
+
+	@Override
+	public int cursor() {
+		return cursor;
+	}
+
+	@Override
+	public int numExamples() {
+		return totalExamples();
+	}
+
+	//Set before the first batch is taken, batches already prefetched are not processed again
+	@Override
+	public void setPreProcessor(DataSetPreProcessor preProcessor) {
+		this.preProcessor = preProcessor;
+	}
+
+	@Override
+	public DataSetPreProcessor getPreProcessor() {
+		return preProcessor;
+	}
+
+	@Override
+	public List<String> getLabels() {
+		return null;
+	}
+}
@@ -0,0 +1,280 @@
+package com.game.stratego.core.stratego;
+
+import com.game.stratego.core.ai.BoardEncoder;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Self play positions kept on disk between runs.
+ * A position is 100 bytes, each square's input value times 32, and one byte
+ * for the label (1 if the side the board was encoded for won). Positions are
+ * appended to memory mapped segment files of a fixed size, and when there are
+ * more than maxSegments the oldest file is deleted. Opening a directory that
+ * already has segments carries on from them. Labels are the two column
+ * win/lose labels playGame makes.
+ */
+public class ReplayBuffer {
+	public static final int RECORD_SIZE = BoardEncoder.INPUT_SIZE + 1;
+	public static final int DEFAULT_SEGMENT_CAPACITY = 1 << 16; //Positions per file, about 6.6MB
+	private static final int MAGIC = 0x53545250; //"STRP"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16; //Magic, version, capacity, count
+	private static final int COUNT_OFFSET = 12;
+	private static final int STEPS = 32; //Input values are whole 32nds
+	private static final String PREFIX = "segment-";
+	private static final String SUFFIX = ".bin";
+
+	private final File directory;
+	private final int segmentCapacity;
+	private final int maxSegments;
+	private final ArrayList<Segment> segments = new ArrayList<Segment>();
+	private long size;
+
+	private final float[] row = new float[BoardEncoder.INPUT_SIZE];
+
+	public ReplayBuffer(File directory, int segmentCapacity, int maxSegments) throws IOException {
+		if(segmentCapacity <= 0 || maxSegments <= 0) {
+			throw new IllegalArgumentException("Need room for at least one position.");
+		}
+		if(segmentCapacity > (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE) {
+			throw new IllegalArgumentException("A segment can hold at most " + (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE + " positions.");
+		}
+		if(!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		this.directory = directory;
+		this.segmentCapacity = segmentCapacity;
+		this.maxSegments = maxSegments;
+		String[] names = directory.list(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+			}
+		});
+		Arrays.sort(names); //Ids are zero padded, so this is oldest first
+		for(String name : names) {
+			Segment s = Segment.open(new File(directory, name), id(name));
+			segments.add(s);
+			size += s.count;
+		}
+		evict();
+	}
+
+	private static long id(String name) {
+		return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+	}
+
+	/**
+	 * Appends every example in the data set. Features must be encoded boards,
+	 * labels the one hot win/lose pair.
+	 */
+	public synchronized void append(DataSet d) throws IOException {
+		INDArray features = d.getFeatures().dup(); //dup gives a plain c ordered buffer
+		INDArray labels = d.getLabels();
+		float[] values = features.data().asFloat();
+		int rows = d.numExamples();
+		for(int i = 0; i < rows; i++) {
+			append(values, i * BoardEncoder.INPUT_SIZE, labels.getFloat(i, 0) > 0.5f);
+		}
+	}
+
+	//Appends one encoded board from values at offset
+	public synchronized void append(float[] values, int offset, boolean won) throws IOException {
+		Segment s = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+		if(s == null || s.count == s.capacity) {
+			long id = (s == null) ? 0 : s.id + 1;
+			s = Segment.create(new File(directory, String.format("%s%012d%s", PREFIX, id, SUFFIX)), id, segmentCapacity);
+			segments.add(s);
+			evict();
+		}
+		s.append(values, offset, won);
+		size++;
+	}
+
+	//Deletes the oldest segments until there are at most maxSegments
+	private void evict() {
+		while(segments.size() > maxSegments) {
+			Segment oldest = segments.remove(0);
+			size -= oldest.count;
+			oldest.delete();
+		}
+	}
+
+	/**
+	 * n positions picked uniformly at random, with replacement, as one
+	 * [n,1,10,10] feature / [n,2] label data set. Null if the buffer is empty.
+	 */
+	public synchronized DataSet sample(int n, Random rnd) {
+		if(size == 0) {
+			return null;
+		}
+		float[] features = new float[n * BoardEncoder.INPUT_SIZE];
+		float[] labels = new float[n * 2];
+		for(int i = 0; i < n; i++) {
+			long index = (long) (rnd.nextDouble() * size);
+			read(index, features, labels, i);
+		}
+		return toDataSet(features, labels, n);
+	}
+
+	/**
+	 * Up to n different positions picked uniformly at random with reservoir
+	 * sampling. Reads every position once in file order, which is slower than
+	 * sample for a small n but never picks the same position twice.
+	 */
+	public synchronized DataSet sampleReservoir(int n, Random rnd) {
+		int k = (int) Math.min(n, size);
+		if(k == 0) {
+			return null;
+		}
+		long[] picked = new long[k];
+		for(long i = 0; i < size; i++) {
+			if(i < k) {
+				picked[(int) i] = i;
+			}
+			else {
+				long j = (long) (rnd.nextDouble() * (i + 1));
+				if(j < k) {
+					picked[(int) j] = i;
+				}
+			}
+		}
+		Arrays.sort(picked); //Reads in file order
+		float[] features = new float[k * BoardEncoder.INPUT_SIZE];
+		float[] labels = new float[k * 2];
+		for(int i = 0; i < k; i++) {
+			read(picked[i], features, labels, i);
+		}
+		return toDataSet(features, labels, k);
+	}
+
+	//Reads position index (0 is the oldest kept) into row slot of the arrays
+	private void read(long index, float[] features, float[] labels, int slot) {
+		int s = 0;
+		while(index >= segments.get(s).count) {
+			index -= segments.get(s).count;
+			s++;
+		}
+		boolean won = segments.get(s).read((int) index, row);
+		System.arraycopy(row, 0, features, slot * BoardEncoder.INPUT_SIZE, BoardEncoder.INPUT_SIZE);
+		labels[slot * 2] = won ? 1 : 0;
+		labels[slot * 2 + 1] = won ? 0 : 1;
+	}
+
+	private static DataSet toDataSet(float[] features, float[] labels, int n) {
+		return new DataSet(Nd4j.create(features, new int[]{n, 1, Board.DEFAULT_BOARD_SIZE, Board.DEFAULT_BOARD_SIZE}),
+				Nd4j.create(labels, new int[]{n, 2}));
+	}
+
+	//Writes the mapped pages out, call before exiting
+	public synchronized void flush() {
+		for(Segment s : segments) {
+			s.buffer.force();
+		}
+	}
+
+	public synchronized long size() {
+		return size;
+	}
+
+	public synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	@Override
+	public String toString() {
+		return "ReplayBuffer[" + directory + ", positions=" + size() + ", segments=" + getSegmentCount() + "]";
+	}
+
+	//One mapped file
+	private static class Segment {
+		final File file;
+		final long id;
+		final int capacity;
+		final MappedByteBuffer buffer;
+		int count;
+
+		private Segment(File file, long id, int capacity, MappedByteBuffer buffer, int count) {
+			this.file = file;
+			this.id = id;
+			this.capacity = capacity;
+			this.buffer = buffer;
+			this.count = count;
+		}
+
+		static Segment create(File file, long id, int capacity) throws IOException {
+			MappedByteBuffer buffer = map(file, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+			buffer.putInt(8, capacity);
+			buffer.putInt(COUNT_OFFSET, 0);
+			return new Segment(file, id, capacity, buffer, 0);
+		}
+
+		static Segment open(File file, long id) throws IOException {
+			if(file.length() < HEADER_SIZE) {
+				throw new IOException(file + " is not a replay buffer segment.");
+			}
+			MappedByteBuffer buffer = map(file, file.length());
+			if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+				throw new IOException(file + " is not a replay buffer segment.");
+			}
+			int capacity = buffer.getInt(8);
+			int count = buffer.getInt(COUNT_OFFSET);
+			if(count < 0 || count > capacity || file.length() < HEADER_SIZE + (long) capacity * RECORD_SIZE) {
+				throw new IOException(file + " is damaged.");
+			}
+			return new Segment(file, id, capacity, buffer, count);
+		}
+
+		private static MappedByteBuffer map(File file, long length) throws IOException {
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(length);
+				return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length); //Stays valid after close
+			} finally {
+				raf.close();
+			}
+		}
+
+		void append(float[] values, int offset, boolean won) {
+			int at = HEADER_SIZE + count * RECORD_SIZE;
+			for(int i = 0; i < BoardEncoder.INPUT_SIZE; i++) {
+				buffer.put(at + i, (byte) Math.round(values[offset + i] * STEPS));
+			}
+			buffer.put(at + BoardEncoder.INPUT_SIZE, (byte) (won ? 1 : 0));
+			count++;
+			buffer.putInt(COUNT_OFFSET, count); //After the record, so a crash never counts a half written one
+		}
+
+		boolean read(int index, float[] out) {
+			int at = HEADER_SIZE + index * RECORD_SIZE;
+			for(int i = 0; i < BoardEncoder.INPUT_SIZE; i++) {
+				out[i] = buffer.get(at + i) / (float) STEPS;
+			}
+			return buffer.get(at + BoardEncoder.INPUT_SIZE) != 0;
+		}
+
+		void delete() {
+			//The mapping can keep the file open until it is garbage collected, some systems only allow the delete then
+			if(!file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.game.stratego.core.stratego;
+
+/**
+ * Movement and combat rules shared by Board and the AI.
+ * Ranks are rank indexes (see Piece.rankIndex).
+ */
+public class Rules {
+	public static final int MARSHAL = 0;
+	public static final int MINER = 7;
+	public static final int SCOUT = 8;
+	public static final int SPY = 9;
+	public static final int BOMB = 10;
+	public static final int FLAG = 11;
+
+	//Combat outcomes. The low two bits say who survives, the rest are extra effects.
+	public static final int ATTACKER_WINS = 1;
+	public static final int DEFENDER_WINS = 2;
+	public static final int BOTH_LOSE = 3;
+	public static final int RESULT_MASK = 3;
+	public static final int REVEAL_DEFENDER = 4; //Defender survives and is revealed
+	public static final int FLAG_CAPTURED = 8;
+
+	private static final int RANKS = Board.NUMBER_OF_PIECES;
+	private static final byte[] OUTCOME = new byte[RANKS * RANKS]; //[attacker][defender]
+	private static final boolean[] MOVABLE = new boolean[RANKS];
+
+	static {
+		for(int a = 0; a < RANKS; a++) {
+			MOVABLE[a] = (a != BOMB && a != FLAG);
+			for(int d = 0; d < RANKS; d++) {
+				int outcome;
+				if(!MOVABLE[a]) {
+					outcome = 0; //Bombs and flags never attack
+				}
+				else if(d == FLAG) {
+					outcome = ATTACKER_WINS | FLAG_CAPTURED;
+				}
+				else if(d == BOMB) {
+					outcome = (a == MINER) ? ATTACKER_WINS : (DEFENDER_WINS | REVEAL_DEFENDER);
+				}
+				else if(a == SPY) {
+					if(d == MARSHAL) outcome = ATTACKER_WINS;
+					else if(d == SPY) outcome = BOTH_LOSE;
+					else outcome = DEFENDER_WINS; //A failed spy attack does not reveal the defender
+				}
+				else if(a < d) { //Better piece lives, anything beats a defending spy
+					outcome = ATTACKER_WINS;
+				}
+				else if(a == d) {
+					outcome = BOTH_LOSE;
+				}
+				else {
+					outcome = DEFENDER_WINS | REVEAL_DEFENDER;
+				}
+				OUTCOME[a * RANKS + d] = (byte) outcome;
+			}
+		}
+	}
+
+	public static int combat(int attacker, int defender) {
+		return OUTCOME[attacker * RANKS + defender];
+	}
+
+	public static boolean canMove(int rank) {
+		return MOVABLE[rank];
+	}
+
+	//Checks everything about a move except whose turn it is
+	public static boolean isLegalMove(Piece[][] board, int x1, int y1, int x2, int y2) {
+		if(!BoardGeometry.onBoard(x1, y1) || !BoardGeometry.onBoard(x2, y2)) { //move is off the board
+			return false;
+		}
+		if(BoardGeometry.isWater(x1, y1) || BoardGeometry.isWater(x2, y2)) {
+			return false;
+		}
+		Piece p = board[x1][y1];
+		if(p == null || !MOVABLE[p.getRankIndex()]) {
+			return false;
+		}
+		int dx = Math.abs(x1-x2);
+		int dy = Math.abs(y1-y2);
+		if(p.getRankIndex() == SCOUT) {
+			if((dx >= 1 && dy >= 1) || BoardGeometry.isPathBlocked(board, x1, y1, x2, y2)) { //No diagonals or jumping
+				return false;
+			}
+		}
+		else if(dx + dy > 1) { //Move must be 1 space away with no diagonals
+			return false;
+		}
+		return board[x2][y2] == null || board[x2][y2].getTeamNumber() != p.getTeamNumber();
+	}
+}
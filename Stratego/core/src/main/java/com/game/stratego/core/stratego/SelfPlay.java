@@ -0,0 +1,226 @@
+package com.game.stratego.core.stratego;
+
+import com.game.stratego.core.ai.AlphaBetaSearch;
+import com.game.stratego.core.ai.FastBoardEvaluator;
+import com.game.stratego.core.ai.IncrementalBoardEvaluator;
+import com.game.stratego.core.ai.InformationSetSearch;
+import com.game.stratego.core.ai.NeuralNetAI;
+import org.nd4j.linalg.dataset.DataSet;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plays self play games for Match.go on several threads.
+ * Each worker has its own AI (sharing the loaded network), its own Random
+ * and its own last winner, and every kept game's labelled positions go onto
+ * one shared queue. Workers take games from a shared count until enough
+ * games have been kept, or until the time limit. With a bounded queue the workers wait for whoever
+ * is taking positions off it, see TrainingPipeline.
+ */
+public class SelfPlay {
+	private final int workers;
+	private final String opponentPath; //Network the games are played with
+	private final long seed;
+	private long timeLimit; //Milliseconds for the whole run, 0 for none
+	private int searchDepth; //Alpha-beta depth for the AI's moves, 0 to pick the best scored move
+	private int simulations; //Information set search simulations per move, 0 for none
+	private long moveTimeLimit; //Milliseconds per searched move, 0 for none
+
+	private final AtomicInteger gamesKept = new AtomicInteger();
+	private final AtomicInteger gamesPlayed = new AtomicInteger();
+	private final AtomicLong positionCount = new AtomicLong();
+	private int target;
+	private long deadline;
+	private volatile boolean stopped;
+	private volatile Thread[] running; //Workers of the current play
+	private long elapsed;
+
+	public SelfPlay(int workers, String opponentPath, long seed) {
+		this.workers = Math.max(1, workers);
+		this.opponentPath = opponentPath;
+		this.seed = seed;
+	}
+
+	/**
+	 * Plays until numOfGames games have been kept and returns all their positions.
+	 * Games that are thrown away (too long, no moves, same winner twice) don't count.
+	 */
+	public ArrayList<DataSet> play(int numOfGames) {
+		LinkedBlockingQueue<DataSet> positions = new LinkedBlockingQueue<DataSet>();
+		play(numOfGames, positions);
+		return new ArrayList<DataSet>(positions);
+	}
+
+	/**
+	 * Plays until numOfGames games have been kept, putting their positions on sink
+	 * as each game ends. Returns when every worker has finished.
+	 */
+	public void play(int numOfGames, final BlockingQueue<DataSet> sink) {
+		target = numOfGames;
+		gamesKept.set(0);
+		gamesPlayed.set(0);
+		positionCount.set(0);
+		stopped = false;
+		Thread[] threads = new Thread[workers];
+		running = threads;
+		final Throwable[] failure = new Throwable[1];
+		long start = System.currentTimeMillis();
+		deadline = (timeLimit > 0) ? start + timeLimit : Long.MAX_VALUE;
+		for(int i = 0; i < workers; i++) {
+			final long workerSeed = seed + i;
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						runWorker(new Random(workerSeed), sink);
+					} catch(Throwable t) {
+						synchronized(failure) {
+							if(failure[0] == null) failure[0] = t;
+						}
+					}
+				}
+			}, "Self play " + i);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+		try {
+			for(Thread t : threads) {
+				t.join();
+			}
+		} catch(InterruptedException e) {
+			for(Thread t : threads) {
+				t.interrupt();
+			}
+			Thread.currentThread().interrupt();
+		}
+		running = null;
+		elapsed = System.currentTimeMillis() - start;
+		if(failure[0] != null) {
+			throw new RuntimeException("Self play worker failed.", failure[0]);
+		}
+	}
+
+	private void runWorker(Random rnd, BlockingQueue<DataSet> sink) {
+		NeuralNetAI ai = new NeuralNetAI(false, opponentPath);
+		InformationSetSearch informationSetSearch = null;
+		try {
+			//Plain Java scoring, so the workers don't queue on the shared network's lock.
+			//Incremental, since the boards scoreMoves builds are one move apart, and each worker has its own
+			ai.setEvaluator(new IncrementalBoardEvaluator(new FastBoardEvaluator(ai.getNetwork())));
+			ai.setRandom(rnd);
+			if(simulations > 0) {
+				//One thread each, the workers already keep the cores busy
+				informationSetSearch = new InformationSetSearch(1, moveTimeLimit, simulations);
+				informationSetSearch.setSeed(rnd.nextLong());
+				ai.setInformationSetSearch(informationSetSearch);
+			}
+			else if(searchDepth > 0) {
+				ai.setSearch(new AlphaBetaSearch(ai, searchDepth, moveTimeLimit, 0));
+			}
+			int[] lastWin = {0};
+			while(gamesKept.get() < target && System.currentTimeMillis() < deadline
+					&& !stopped && !Thread.currentThread().isInterrupted()) {
+				ArrayList<DataSet> game = Match.playGame(false, ai, rnd, lastWin);
+				gamesPlayed.incrementAndGet();
+				if(game == null || game.isEmpty()) {
+					continue;
+				}
+				//Another worker may have reached the target while this game was played
+				if(gamesKept.incrementAndGet() > target) {
+					break;
+				}
+				for(DataSet d : game) {
+					sink.put(d); //Waits while a bounded sink is full
+				}
+				positionCount.addAndGet(game.size());
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if(informationSetSearch != null) {
+				informationSetSearch.shutdown();
+			}
+			ai.release();
+		}
+	}
+
+	/**
+	 * Ends the current play from another thread. Workers waiting on a full sink
+	 * are interrupted and no new games are started, so play returns soon after.
+	 */
+	public void stop() {
+		stopped = true;
+		Thread[] threads = running;
+		if(threads != null) {
+			for(Thread t : threads) {
+				if(t != null) {
+					t.interrupt();
+				}
+			}
+		}
+	}
+
+	//Stops starting new games after this many milliseconds, 0 for no limit
+	public void setTimeLimit(long timeLimit) {
+		this.timeLimit = timeLimit;
+	}
+
+	public long getTimeLimit() {
+		return timeLimit;
+	}
+
+	//Has the AI search depth moves ahead, spending at most moveTimeLimit milliseconds (0 for no limit) on each
+	public void setSearch(int depth, long moveTimeLimit) {
+		this.searchDepth = depth;
+		this.simulations = 0;
+		this.moveTimeLimit = moveTimeLimit;
+	}
+
+	//Has the AI play with information set search instead, without seeing the other side's hidden ranks
+	public void setInformationSetSearch(int simulations, long moveTimeLimit) {
+		this.simulations = simulations;
+		this.searchDepth = 0;
+		this.moveTimeLimit = moveTimeLimit;
+	}
+
+	public int getWorkers() {
+		return workers;
+	}
+
+	//Stats of the last play
+	public int getGamesKept() {
+		return Math.min(gamesKept.get(), target);
+	}
+
+	public int getGamesPlayed() {
+		return gamesPlayed.get();
+	}
+
+	public long getPositions() {
+		return positionCount.get();
+	}
+
+	public long getElapsed() {
+		return elapsed;
+	}
+
+	public double getGamesPerSecond() {
+		return (elapsed == 0) ? 0 : gamesPlayed.get() * 1000.0 / elapsed;
+	}
+
+	public double getPositionsPerSecond() {
+		return (elapsed == 0) ? 0 : positionCount.get() * 1000.0 / elapsed;
+	}
+
+	@Override
+	public String toString() {
+		return "SelfPlay[workers=" + workers + ", gamesPlayed=" + gamesPlayed.get() + ", positions=" + positionCount.get()
+				+ ", ms=" + elapsed + ", gamesPerSecond=" + String.format("%.2f", getGamesPerSecond())
+				+ ", positionsPerSecond=" + String.format("%.0f", getPositionsPerSecond()) + "]";
+	}
+}
@@ -0,0 +1,202 @@
+package com.game.stratego.core.stratego;
+
+import org.deeplearning4j.eval.Evaluation;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Trains the network while self play is still running.
+ * SelfPlay workers put positions on a bounded queue, a PrefetchingDataSetIterator
+ * turns them into minibatches and a trainer thread fits each one, so at most
+ * queueCapacity positions wait in memory and the workers stop when the trainer
+ * falls behind. Every evaluationInterval'th batch is scored before it is
+ * fitted, which gives an evaluation on positions the network has not been
+ * trained on yet without running the network twice on every batch. With a replay buffer set, every
+ * batch is also saved to it and followed by replayBatches batches sampled
+ * from everything in the buffer, including earlier runs.
+ */
+public class TrainingPipeline {
+	public static final int DEFAULT_BATCH_SIZE = 32;
+	public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+	public static final int DEFAULT_EVALUATION_INTERVAL = 10;
+	private static final int PREFETCH = 4; //Batches made ahead of fit
+
+	private final MultiLayerNetwork network;
+	private final int batchSize;
+	private final int queueCapacity;
+	private ReplayBuffer replayBuffer;
+	private int replayBatches;
+	private Random random = new Random();
+	private int evaluationInterval = DEFAULT_EVALUATION_INTERVAL;
+
+	private volatile Throwable failure;
+
+	private Evaluation evaluation;
+	private long batches;
+	private long positions;
+	private long evaluated;
+	private long replayed;
+	private long trainingTime; //Milliseconds spent in output and fit
+	private long elapsed;
+
+	public TrainingPipeline(MultiLayerNetwork network, int batchSize, int queueCapacity) {
+		if(batchSize <= 0 || queueCapacity < batchSize) {
+			throw new IllegalArgumentException("Need a positive batch size and a queue that holds at least one batch.");
+		}
+		this.network = network;
+		this.batchSize = batchSize;
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Plays numOfGames games with selfPlay and trains on their positions as they come in.
+	 * Returns after the last position has been fitted. If fitting fails, self play
+	 * is stopped and the failure is thrown from here. Either way the trainer has
+	 * stopped by the time this returns or throws.
+	 */
+	public void run(final SelfPlay selfPlay, int numOfGames) {
+		final BlockingQueue<DataSet> queue = new ArrayBlockingQueue<DataSet>(queueCapacity);
+		final PrefetchingDataSetIterator iterator = new PrefetchingDataSetIterator(queue, batchSize, PREFETCH);
+		failure = null;
+		evaluation = new Evaluation();
+		batches = 0;
+		positions = 0;
+		evaluated = 0;
+		replayed = 0;
+		trainingTime = 0;
+		long start = System.currentTimeMillis();
+		Thread trainer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while(iterator.hasNext()) {
+						fit(iterator.next());
+					}
+				} catch(Throwable t) {
+					failure = t;
+					iterator.shutdown();
+					selfPlay.stop(); //Workers waiting on the full queue would wait forever
+				}
+			}
+		}, "Trainer");
+		trainer.setDaemon(true);
+		trainer.start();
+		boolean played = false;
+		try {
+			selfPlay.play(numOfGames, queue);
+			played = true;
+		} finally {
+			iterator.finish();
+			if(!played) {
+				iterator.shutdown(); //Self play failed, don't wait for the rest of the queue
+			}
+			//Nothing may still be fitting the network or writing the replay buffer once run returns
+			boolean interrupted = false;
+			while(trainer.isAlive()) {
+				try {
+					trainer.join();
+				} catch(InterruptedException e) {
+					interrupted = true;
+					iterator.shutdown();
+				}
+			}
+			if(interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		elapsed = System.currentTimeMillis() - start;
+		if(failure != null) {
+			throw new RuntimeException("Trainer failed.", failure);
+		}
+	}
+
+	private void fit(DataSet batch) throws IOException {
+		long start = System.currentTimeMillis();
+		if(batches % evaluationInterval == 0) {
+			INDArray predicted = network.output(batch.getFeatureMatrix());
+			evaluation.eval(batch.getLabels(), predicted);
+			evaluated += batch.numExamples();
+		}
+		network.fit(batch);
+		if(replayBuffer != null) {
+			replayBuffer.append(batch);
+			for(int i = 0; i < replayBatches; i++) {
+				DataSet old = replayBuffer.sample(batchSize, random);
+				network.fit(old);
+				replayed += old.numExamples();
+			}
+		}
+		trainingTime += System.currentTimeMillis() - start;
+		batches++;
+		positions += batch.numExamples();
+	}
+
+	//Scores one batch in every interval for the evaluation, 1 for every batch
+	public void setEvaluationInterval(int interval) {
+		if(interval <= 0) {
+			throw new IllegalArgumentException("Interval must be positive.");
+		}
+		this.evaluationInterval = interval;
+	}
+
+	public int getEvaluationInterval() {
+		return evaluationInterval;
+	}
+
+	//Saves every batch to buffer and fits replayBatches sampled batches after each one, null for none
+	public void setReplayBuffer(ReplayBuffer buffer, int replayBatches) {
+		this.replayBuffer = buffer;
+		this.replayBatches = replayBatches;
+	}
+
+	public ReplayBuffer getReplayBuffer() {
+		return replayBuffer;
+	}
+
+	public void setRandom(Random random) {
+		this.random = random;
+	}
+
+	//Stats of the last run
+	public Evaluation getEvaluation() {
+		return evaluation;
+	}
+
+	public long getBatches() {
+		return batches;
+	}
+
+	public long getPositions() {
+		return positions;
+	}
+
+	//Positions in the evaluation
+	public long getEvaluated() {
+		return evaluated;
+	}
+
+	//Positions fitted again from the replay buffer
+	public long getReplayed() {
+		return replayed;
+	}
+
+	public long getTrainingTime() {
+		return trainingTime;
+	}
+
+	public long getElapsed() {
+		return elapsed;
+	}
+
+	@Override
+	public String toString() {
+		return "TrainingPipeline[batchSize=" + batchSize + ", batches=" + batches + ", positions=" + positions
+				+ ", evaluated=" + evaluated + ", replayed=" + replayed + ", trainingMs=" + trainingTime + ", ms=" + elapsed + "]";
+	}
+}
@@ -0,0 +1,112 @@
+package com.game.stratego.core.stratego;
+
+import java.util.Random;
+
+/**
+ * One team's off-board pieces, counted per rank index with a running total.
+ * The TrayPiece views returned by getPieces() read and write these counts.
+ */
+public class Tray {
+	public static final int[] DEFAULT_COUNTS = {
+			1, //1 Marshal
+			1, //1 General
+			2, //2 Colonels
+			3, //3 Majors
+			4, //4 Captains
+			4, //4 Lieutenants
+			4, //4 Sergeants
+			5, //5 Miners
+			8, //8 Scouts
+			1, //1 Spy
+			6, //6 Bombs
+			1  //1 Flag
+	};
+
+	private final int[] remaining = new int[Board.NUMBER_OF_PIECES];
+	private int total;
+	private final TrayPiece[] pieces;
+
+	public Tray() {
+		pieces = new TrayPiece[Board.NUMBER_OF_PIECES];
+		for(int rank = 0; rank < Board.NUMBER_OF_PIECES; rank++) {
+			pieces[rank] = new TrayPiece(Piece.RANKS[rank], 0);
+			pieces[rank].attach(this, rank);
+			setRemaining(rank, DEFAULT_COUNTS[rank]);
+		}
+	}
+
+	//Takes over existing tray pieces, keeping their current counts
+	public Tray(TrayPiece[] pieces) {
+		this.pieces = pieces;
+		for(int i = 0; i < pieces.length; i++) {
+			int rank = Piece.rankIndex(pieces[i].getRank());
+			setRemaining(rank, remaining[rank] + pieces[i].getRemaining());
+			pieces[i].attach(this, rank);
+		}
+	}
+
+	public int getRemaining(int rank) {
+		return remaining[rank];
+	}
+
+	public void setRemaining(int rank, int count) {
+		total += count - remaining[rank];
+		remaining[rank] = count;
+	}
+
+	public int getTotal() {
+		return total;
+	}
+
+	public boolean isEmpty() {
+		return total == 0;
+	}
+
+	public Piece takePiece(int rank, int teamNumber) {
+		if(remaining[rank] > 0) {
+			remaining[rank]--;
+			total--;
+			return new Piece(Piece.RANKS[rank], teamNumber);
+		}
+		return null;
+	}
+
+	public void returnPiece(int rank) {
+		remaining[rank]++;
+		total++;
+	}
+
+	public void removePiece(int rank) {
+		if(remaining[rank] > 0) {
+			remaining[rank]--;
+			total--;
+		}
+	}
+
+	//Takes a piece from a random non-empty slot, leaving the flag alone
+	public Piece takeRandomPiece(int teamNumber) {
+		return takeRandomPiece(teamNumber, null);
+	}
+
+	//Uses Math.random when rnd is null
+	public Piece takeRandomPiece(int teamNumber, Random rnd) {
+		int slots = 0;
+		for(int rank = 0; rank < Rules.FLAG; rank++) {
+			if(remaining[rank] > 0) slots++;
+		}
+		if(slots == 0) {
+			return null;
+		}
+		int pick = (rnd == null) ? (int)(Math.random()*slots) : rnd.nextInt(slots);
+		for(int rank = 0; rank < Rules.FLAG; rank++) {
+			if(remaining[rank] > 0 && pick-- == 0) {
+				return takePiece(rank, teamNumber);
+			}
+		}
+		return null;
+	}
+
+	public TrayPiece[] getPieces() {
+		return pieces;
+	}
+}
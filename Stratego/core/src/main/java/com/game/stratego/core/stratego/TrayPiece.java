@@ -3,22 +3,37 @@ package com.game.stratego.core.stratego;
 public class TrayPiece {
 	private char rank;
 	private int remaining;
+	private Tray tray; //When attached, the count lives in the tray
+	private int slot;
 	
 	public TrayPiece(char rank, int remaining) {
 		this.rank = rank;
 		this.remaining = remaining;
 	}
 
+	void attach(Tray tray, int slot) {
+		this.tray = tray;
+		this.slot = slot;
+	}
+
 	public Piece takePiece(int teamNumber) {
-		if(remaining > 0) {
-			remaining--;
+		int left = getRemaining();
+		if(left > 0) {
+			setRemaining(left - 1);
 			return (new Piece(rank, teamNumber));
 		}
 		return null;
 	}
 
 	public void returnPiece() {
-		remaining++;
+		setRemaining(getRemaining() + 1);
+	}
+
+	public void removePiece() {
+		int left = getRemaining();
+		if(left > 0) {
+			setRemaining(left - 1);
+		}
 	}
 
 	public char getRank() {
@@ -30,11 +45,16 @@ public class TrayPiece {
 	}
 
 	public int getRemaining() {
-		return remaining;
+		return (tray != null) ? tray.getRemaining(slot) : remaining;
 	}
 
 	public void setRemaining(int remaining) {
-		this.remaining = remaining;
+		if(tray != null) {
+			tray.setRemaining(slot, remaining);
+		}
+		else {
+			this.remaining = remaining;
+		}
 	}
 	
 }
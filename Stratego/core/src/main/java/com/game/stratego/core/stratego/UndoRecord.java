@@ -0,0 +1,36 @@
+package com.game.stratego.core.stratego;
+
+/**
+ * Everything Board.unmakeMove needs to put a move back.
+ * Records are owned and reused by the Board that made them.
+ */
+public class UndoRecord {
+	int x1, y1, x2, y2;
+	Piece attacker;
+	Piece defender;
+	boolean attackerRevealed;
+	boolean attackerMoved;
+	boolean defenderRevealed;
+	boolean attackerCaptured;
+	boolean defenderCaptured;
+	boolean gameFinished;
+	int winner;
+	long hash;
+	int sideToMove;
+
+	public Piece getAttacker() {
+		return attacker;
+	}
+
+	public Piece getDefender() {
+		return defender;
+	}
+
+	public boolean isAttackerCaptured() {
+		return attackerCaptured;
+	}
+
+	public boolean isDefenderCaptured() {
+		return defenderCaptured;
+	}
+}
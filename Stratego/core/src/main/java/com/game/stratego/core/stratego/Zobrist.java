@@ -0,0 +1,48 @@
+package com.game.stratego.core.stratego;
+
+import java.util.Random;
+
+/**
+ * Random keys for 64 bit Zobrist hashing of board positions.
+ * A position's key is the XOR of one key per piece (team, rank, revealed, square)
+ * plus SIDE_TO_MOVE when team 1 is to move.
+ */
+public class Zobrist {
+	private static final int SQUARES = Board.DEFAULT_BOARD_SIZE * Board.DEFAULT_BOARD_SIZE;
+	private static final long[] PIECES = new long[2 * Board.NUMBER_OF_PIECES * 2 * SQUARES];
+	public static final long SIDE_TO_MOVE;
+
+	static {
+		Random random = new Random(0x5A7A7E60L); //Fixed seed so keys are the same every run
+		for(int i = 0; i < PIECES.length; i++) {
+			PIECES[i] = random.nextLong();
+		}
+		SIDE_TO_MOVE = random.nextLong();
+	}
+
+	public static long pieceKey(int teamNumber, int rank, boolean isRevealed, int x, int y) {
+		int i = ((teamNumber * Board.NUMBER_OF_PIECES) + rank) * 2 + (isRevealed ? 1 : 0);
+		return PIECES[i * SQUARES + x * Board.DEFAULT_BOARD_SIZE + y];
+	}
+
+	public static long pieceKey(Piece p, int x, int y) {
+		if(p == null) {
+			return 0;
+		}
+		return pieceKey(p.getTeamNumber(), Piece.rankIndex(p.getRank()), p.isRevealed(), x, y);
+	}
+
+	public static long sideKey(int sideToMove) {
+		return (sideToMove == 1) ? SIDE_TO_MOVE : 0;
+	}
+
+	public static long hash(Piece[][] board, int sideToMove) {
+		long h = sideKey(sideToMove);
+		for(int x = 0; x < Board.DEFAULT_BOARD_SIZE; x++) {
+			for(int y = 0; y < Board.DEFAULT_BOARD_SIZE; y++) {
+				h ^= pieceKey(board[x][y], x, y);
+			}
+		}
+		return h;
+	}
+}
@@ -0,0 +1,190 @@
+package com.game.stratego.selfplay;
+
+import com.game.stratego.core.ai.BoardClassifier;
+import com.game.stratego.core.ai.NeuralNetAI;
+import com.game.stratego.core.stratego.ReplayBuffer;
+import com.game.stratego.core.stratego.SelfPlay;
+import com.game.stratego.core.stratego.TrainingPipeline;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.util.ModelSerializer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Runs self play and training without the desktop game, for headless machines.
+ * Does what Match.go does, with everything Match.go hard codes as options.
+ * Model names are files in assets/net, so run it from the directory that holds assets.
+ */
+public class StrategoSelfPlay {
+	private static final String USAGE =
+			"Usage: StrategoSelfPlay [options]\n"
+			+ "  --games N            games to keep (default 700)\n"
+			+ "  --threads N          self play threads (default one per core)\n"
+			+ "  --opponent NAME      network the games are played with, in assets/net (default NeuralNetwork19.zip)\n"
+			+ "  --model NAME         network to train, in assets/net, or new (default NeuralNetwork.zip)\n"
+			+ "  --output FILE        where the trained network is saved (default assets/net/NeuralNetwork.zip)\n"
+			+ "  --seed N             seed for the games and replay sampling (default from the clock)\n"
+			+ "  --time-limit S       stop starting games after S seconds (default none)\n"
+			+ "  --depth N            search N moves ahead instead of picking the best scored move (default 0)\n"
+			+ "  --simulations N      play with information set search, N simulations per move (default off)\n"
+			+ "  --move-time MS       time limit for each searched move (default none)\n"
+			+ "  --batch N            minibatch size (default " + TrainingPipeline.DEFAULT_BATCH_SIZE + ")\n"
+			+ "  --queue N            positions waiting for the trainer before games pause (default " + TrainingPipeline.DEFAULT_QUEUE_CAPACITY + ")\n"
+			+ "  --replay DIR         keep positions in a replay buffer in DIR and train on it too\n"
+			+ "  --replay-segments N  replay files kept, " + ReplayBuffer.DEFAULT_SEGMENT_CAPACITY + " positions each (default 32)\n"
+			+ "  --replay-batches N   replay batches fitted after each new batch (default 1)\n"
+			+ "  --help               show this";
+
+	private int games = 700;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private String opponent = "NeuralNetwork19.zip";
+	private String model = "NeuralNetwork.zip";
+	private File output = new File("assets/net/NeuralNetwork.zip");
+	private long seed = System.nanoTime();
+	private long timeLimit = 0;
+	private int depth = 0;
+	private int simulations = 0;
+	private long moveTime = 0;
+	private int batchSize = TrainingPipeline.DEFAULT_BATCH_SIZE;
+	private int queueCapacity = TrainingPipeline.DEFAULT_QUEUE_CAPACITY;
+	private File replay = null;
+	private int replaySegments = 32;
+	private int replayBatches = 1;
+
+	public static void main(String[] args) {
+		StrategoSelfPlay run = new StrategoSelfPlay();
+		try {
+			if(!run.parse(args)) {
+				System.out.println(USAGE);
+				return;
+			}
+		} catch(IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+		try {
+			run.run();
+		} catch(IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		} catch(RuntimeException e) { //A failed trainer or self play worker
+			e.printStackTrace();
+			System.exit(1);
+		}
+		System.exit(0); //DL4J leaves non daemon threads behind
+	}
+
+	//Returns false if only the usage was asked for
+	private boolean parse(String[] args) {
+		for(int i = 0; i < args.length; i++) {
+			String option = args[i];
+			if(option.equals("--help") || option.equals("-h")) {
+				return false;
+			}
+			if(i + 1 == args.length) {
+				throw new IllegalArgumentException("Missing value for " + option);
+			}
+			String value = args[++i];
+			if(option.equals("--games")) games = positive(option, value);
+			else if(option.equals("--threads")) threads = positive(option, value);
+			else if(option.equals("--opponent")) opponent = value;
+			else if(option.equals("--model")) model = value;
+			else if(option.equals("--output")) output = new File(value);
+			else if(option.equals("--seed")) seed = number(option, value);
+			else if(option.equals("--time-limit")) timeLimit = number(option, value) * 1000;
+			else if(option.equals("--depth")) depth = count(option, value);
+			else if(option.equals("--simulations")) simulations = positive(option, value);
+			else if(option.equals("--move-time")) moveTime = number(option, value);
+			else if(option.equals("--batch")) batchSize = positive(option, value);
+			else if(option.equals("--queue")) queueCapacity = positive(option, value);
+			else if(option.equals("--replay")) replay = new File(value);
+			else if(option.equals("--replay-segments")) replaySegments = positive(option, value);
+			else if(option.equals("--replay-batches")) replayBatches = count(option, value);
+			else throw new IllegalArgumentException("Unknown option " + option);
+		}
+		if(depth > 0 && simulations > 0) {
+			throw new IllegalArgumentException("Use --depth or --simulations, not both");
+		}
+		if(queueCapacity < batchSize) {
+			throw new IllegalArgumentException("--queue must be at least --batch");
+		}
+		return true;
+	}
+
+	private static long number(String option, String value) {
+		try {
+			long n = Long.parseLong(value);
+			if(n < 0) {
+				throw new IllegalArgumentException(option + " can't be negative");
+			}
+			return n;
+		} catch(NumberFormatException e) {
+			throw new IllegalArgumentException(option + " needs a number, got " + value);
+		}
+	}
+
+	private static int positive(String option, String value) {
+		long n = number(option, value);
+		if(n == 0 || n > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(option + " must be between 1 and " + Integer.MAX_VALUE);
+		}
+		return (int) n;
+	}
+
+	//Like positive, but 0 is allowed
+	private static int count(String option, String value) {
+		long n = number(option, value);
+		if(n > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(option + " must be between 0 and " + Integer.MAX_VALUE);
+		}
+		return (int) n;
+	}
+
+	private void run() throws IOException {
+		System.out.println("Load " + model);
+		MultiLayerNetwork network = model.equals("new") ? BoardClassifier.getModel(false) : NeuralNetAI.loadNet(model);
+
+		SelfPlay selfPlay = new SelfPlay(threads, opponent, seed);
+		selfPlay.setTimeLimit(timeLimit);
+		if(simulations > 0) {
+			selfPlay.setInformationSetSearch(simulations, moveTime);
+		}
+		else {
+			selfPlay.setSearch(depth, moveTime);
+		}
+		TrainingPipeline pipeline = new TrainingPipeline(network, batchSize, queueCapacity);
+		pipeline.setRandom(new Random(seed));
+		ReplayBuffer buffer = null;
+		if(replay != null) {
+			buffer = new ReplayBuffer(replay, ReplayBuffer.DEFAULT_SEGMENT_CAPACITY, replaySegments);
+			System.out.println("Replaying from " + buffer);
+			pipeline.setReplayBuffer(buffer, replayBatches);
+		}
+
+		System.out.println("Playing " + games + " games against " + opponent + " on " + threads + " threads while training.");
+		try {
+			pipeline.run(selfPlay, games);
+		} finally {
+			if(buffer != null) {
+				buffer.flush(); //Keep what was saved even if training failed
+			}
+		}
+		System.out.println(selfPlay);
+		System.out.println(pipeline);
+		if(buffer != null) {
+			System.out.println(buffer);
+		}
+		System.out.println(pipeline.getEvaluation().stats());
+
+		System.out.println("Saving network to " + output);
+		File parent = output.getAbsoluteFile().getParentFile();
+		if(parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Could not create " + parent);
+		}
+		ModelSerializer.writeModel(network, output, true);
+		System.out.println("Network Saved.");
+	}
+}